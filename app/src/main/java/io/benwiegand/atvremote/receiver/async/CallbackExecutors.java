@@ -0,0 +1,122 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * where Sec callbacks can run (see {@link Sec#callbacksOn(Executor)}), and a watchdog for the ones that
+ * run on transport threads.
+ * <p>
+ *     transport threads (the network event loop, connection output threads, response completion) mark
+ *     themselves. a callback that runs on one of them and takes longer than {@link #TRANSPORT_BUDGET} is
+ *     logged and counted, because everyone else's I/O waits on it. those callbacks should be moved to a
+ *     lane.
+ * </p>
+ */
+public final class CallbackExecutors {
+    private static final String TAG = CallbackExecutors.class.getSimpleName();
+
+    private static final long TRANSPORT_BUDGET = 2;    // ms
+
+    private static final Executor INLINE = Runnable::run;
+    private static final Map<String, SerialExecutor> lanes = new ConcurrentHashMap<>();
+    private static final ThreadLocal<boolean[]> transport = ThreadLocal.withInitial(() -> new boolean[1]);
+    private static Executor mainThread = null;
+
+    private static final LongAdder transportCallbacks = new LongAdder();
+    private static final LongAdder overBudget = new LongAdder();
+    private static final AtomicLong worst = new AtomicLong();  // ns
+
+    private CallbackExecutors() {}
+
+    /**
+     * @return runs callbacks on whichever thread finishes the Sec. this is the default.
+     */
+    public static Executor inline() {
+        return INLINE;
+    }
+
+    /**
+     * @param name the lane, everything using the same name shares it
+     * @return a serial lane on the shared worker pool
+     */
+    public static Executor lane(String name) {
+        return lanes.computeIfAbsent(name, n -> WorkerPool.getShared().createSerialExecutor());
+    }
+
+    /**
+     * @return a serial lane on the shared worker pool that nothing else uses. unlike {@link #lane(String)},
+     *         it isn't kept anywhere, so it goes away with whatever holds it.
+     */
+    public static Executor newLane() {
+        return WorkerPool.getShared().createSerialExecutor();
+    }
+
+    /**
+     * @return runs callbacks on the main looper
+     */
+    public static synchronized Executor mainThread() {
+        if (mainThread != null) return mainThread;
+
+        Handler handler = new Handler(Looper.getMainLooper());
+        mainThread = task -> {
+            if (!handler.post(task)) throw new RejectedExecutionException("main looper is exiting");
+        };
+        return mainThread;
+    }
+
+    /**
+     * marks the current thread as a transport thread for as long as it lives
+     */
+    public static void markTransportThread() {
+        transport.get()[0] = true;
+    }
+
+    /**
+     * runs a task as a transport thread, for transport work on a shared pool
+     * @param task the task
+     */
+    public static void runAsTransport(Runnable task) {
+        boolean[] flag = transport.get();
+        boolean wasTransport = flag[0];
+        flag[0] = true;
+        try {
+            task.run();
+        } finally {
+            flag[0] = wasTransport;
+        }
+    }
+
+    static boolean isTransportThread() {
+        return transport.get()[0];
+    }
+
+    /**
+     * records how long callbacks took on a transport thread
+     * @param nanos how long they took
+     * @param callback what ran, for the log
+     */
+    static void recordTransportCallback(long nanos, Object callback) {
+        transportCallbacks.increment();
+        worst.accumulateAndGet(nanos, Math::max);
+        if (nanos <= TRANSPORT_BUDGET * 1000000) return;
+
+        overBudget.increment();
+        Log.w(TAG, String.format(Locale.ROOT, "callback took %.1f ms on transport thread %s: %s",
+                nanos / 1000000.0, Thread.currentThread().getName(), callback));
+    }
+
+    public static String getStats() {
+        return String.format(Locale.ROOT, "transport callbacks=%d over budget=%d worst=%.1fms, %d lanes",
+                transportCallbacks.sum(), overBudget.sum(), worst.get() / 1000000.0, lanes.size());
+    }
+}
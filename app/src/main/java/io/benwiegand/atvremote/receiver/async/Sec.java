@@ -1,25 +1,95 @@
 package io.benwiegand.atvremote.receiver.async;
 
-import static io.benwiegand.atvremote.receiver.async.SecAdapter.createThreadless;
-
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Function;
-
-// as in "just a sec"
+import java.util.function.IntBinaryOperator;
+
+/**
+ * as in "just a sec"
+ * <p>
+ *     the state is a few bits changed with CAS, there's no lock. the result and callbacks are plain
+ *     fields, published by the state change that follows writing them. callbacks run exactly once, on
+ *     whichever thread sets the second of FINISHED and ARMED.
+ * </p>
+ * <p>
+ *     map stages don't make a new Sec, they're added to this one and run right before the callbacks.
+ *     so a Sec has one consumer: chaining, callbacks and getters should all come from one place, and
+ *     after calling map() only the returned Sec should be used.
+ * </p>
+ * <p>
+ *     flatMap(), timeout() and observeOn() do return a new Sec, and set up the callbacks of this one.
+ * </p>
+ * <p>
+ *     cancelling goes upstream: the producer can withdraw the work (or say it's too late), and Secs made
+ *     by the operators above cancel the ones they came from.
+ * </p>
+ * <p>
+ *     callbacks run on whichever thread finishes the Sec, unless callbacksOn() says otherwise. when that's
+ *     a transport thread, slow callbacks get flagged (see {@link CallbackExecutors}).
+ * </p>
+ */
 public class Sec<T> {
     private static final String TAG = Sec.class.getSimpleName();
 
-    private final Object lock = new Object();
-    private boolean finished = false;
-    private T result = null;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Sec> STATE = AtomicIntegerFieldUpdater.newUpdater(Sec.class, "state");
+    private static final IntBinaryOperator OR = (a, b) -> a | b;
+    private static final IntBinaryOperator AND = (a, b) -> a & b;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Sec, BooleanSupplier> CANCELLER =
+            AtomicReferenceFieldUpdater.newUpdater(Sec.class, BooleanSupplier.class, "canceller");
+    private static final BooleanSupplier TOO_LATE = () -> false;
+
+    // state bits
+    private static final int COMPLETING = 1;    // a result or error is being provided
+    private static final int FINISHED = 2;      // the result or error is set
+    private static final int ARMED = 4;         // callbacks are set up
+    private static final int SETTLED = 8;       // map stages have been applied
+    private static final int CANCELLED = 16;    // finished by cancel(), the producer's result is dropped
+
+    private volatile int state = 0;
+
+    // written before FINISHED is set. the type changes as map stages are applied.
+    private Object result = null;
     private Throwable error = null;
 
-    private boolean callbacksSet = false;
-    private boolean callbacksCalled = false;
-    private Consumer<T> onResult = null;
+    // consumer only, until ARMED is set
+    private Stage stages = null;
+    private Stage lastStage = null;
+    private Consumer<Object> onResult = null;
     private Consumer<Throwable> onError = null;
+    private Executor callbackExecutor = null;
+
+    // producer side, taken once by cancel()
+    private volatile BooleanSupplier canceller = null;
+    // set by operators before the Sec is returned
+    private volatile Runnable cancelUpstream = null;
+
+    private static final class Stage {
+        private final Function<Object, Object> resultMapper;
+        private final Function<Throwable, Throwable> errorMapper;
+        private Stage next = null;
+
+        private Stage(Function<Object, Object> resultMapper, Function<Throwable, Throwable> errorMapper) {
+            this.resultMapper = resultMapper;
+            this.errorMapper = errorMapper;
+        }
+    }
 
     Sec() {}
 
@@ -28,128 +98,284 @@ public class Sec<T> {
     }
 
     public boolean isFinished() {
-        synchronized (lock) {
-            return finished;
-        }
+        int s = state;
+        // once armed, map stages might still be running on the completing thread
+        return (s & FINISHED) != 0 && ((s & ARMED) == 0 || (s & SETTLED) != 0);
     }
 
     public boolean isSuccessful() {
-        synchronized (lock) {
-            if (!finished) throw new IllegalStateException("not finished, success is not yet known");
-
-            return error == null;
-        }
+        settleForRead("not finished, success is not yet known");
+        return error == null;
     }
 
+    @SuppressWarnings("unchecked")
     public T getResult() {
-        synchronized (lock) {
-            if (!finished) throw new IllegalStateException("not finished, result doesn't exist yet");
-
-            return result;
-        }
+        settleForRead("not finished, result doesn't exist yet");
+        return (T) result;
     }
 
     public Throwable getError() {
-        synchronized (lock) {
-            if (!finished) throw new IllegalStateException("not finished, error doesn't exist yet");
-
-            return error;
-        }
+        settleForRead("not finished, error doesn't exist yet");
+        return error;
     }
 
+    @SuppressWarnings("unchecked")
     public T getResultOrThrow() throws Throwable {
-        synchronized (lock) {
-            if (!finished) throw new IllegalStateException("not finished, result/error doesn't exist yet");
-
-            if (error != null) throw error;
-            return result;
-        }
+        settleForRead("not finished, result/error doesn't exist yet");
+        if (error != null) throw error;
+        return (T) result;
     }
 
+    @SuppressWarnings("unchecked")
     public Sec<T> doOnResult(Consumer<T> onResult) {
-        synchronized (lock) {
-            if (callbacksSet) throw new IllegalStateException("callbacks already set up");
-            this.onResult = onResult;
-            return this;
-        }
+        if ((state & ARMED) != 0) throw new IllegalStateException("callbacks already set up");
+        this.onResult = (Consumer<Object>) onResult;
+        return this;
     }
 
     public Sec<T> doOnError(Consumer<Throwable> onError) {
-        synchronized (lock) {
-            if (callbacksSet) throw new IllegalStateException("callbacks already set up");
-            this.onError = onError;
-            return this;
+        if ((state & ARMED) != 0) throw new IllegalStateException("callbacks already set up");
+        this.onError = onError;
+        return this;
+    }
+
+    /**
+     * runs the map stages and callbacks on an executor, instead of on whichever thread finishes this.
+     * Secs made from this with flatMap() or timeout() take the executor with them.
+     * @param executor where to run them, see {@link CallbackExecutors}
+     */
+    public Sec<T> callbacksOn(Executor executor) {
+        if ((state & ARMED) != 0) throw new IllegalStateException("callbacks already set up");
+        callbackExecutor = executor;
+        return this;
+    }
+
+    /**
+     * adds a stage that maps the result. this doesn't make a new Sec: it returns this one, and anything
+     * still holding this Sec will see the mapped result (typed as T, so it's wrong). only use the
+     * returned Sec after calling this.
+     * @param map runs on the result, an exception it throws becomes the error
+     * @return this Sec
+     */
+    @SuppressWarnings("unchecked")
+    public <U> Sec<U> map(Function<T, U> map) {
+        addStage(new Stage((Function<Object, Object>) map, null));
+        return (Sec<U>) this;
+    }
+
+    /**
+     * adds a stage that maps the error. like map(), this changes the error anything holding this Sec sees.
+     * @param map runs on the error, and returns what to fail with instead
+     * @return this Sec
+     */
+    public Sec<T> mapError(Function<Throwable, Throwable> map) {
+        addStage(new Stage(null, map));
+        return this;
+    }
+
+    private void addStage(Stage stage) {
+        int s = state;
+        if ((s & ARMED) != 0) throw new IllegalStateException("callbacks already set up");
+        if ((s & SETTLED) != 0) STATE.getAndAccumulate(this, ~SETTLED, AND);    // a getter settled it already
+
+        if (lastStage == null) {
+            stages = stage;
+        } else {
+            lastStage.next = stage;
         }
+        lastStage = stage;
     }
 
-    private static <T, U> Consumer<T> applyMap(Function<T, U> mapper, Consumer<U> downstreamResult, Consumer<Throwable> downstreamError) {
-        return r -> {
-            U mapped;
+    /**
+     * chains another async step, without waiting on a thread for this one
+     * @param next makes the next step from the result
+     * @return the result of the next step, or the error of either step
+     */
+    public <U> Sec<U> flatMap(Function<T, Sec<U>> next) {
+        Sec<U> downstream = new Sec<>();
+        handOverExecutor(downstream);
+        AtomicReference<Sec<U>> current = new AtomicReference<>();
+        doOnResult(r -> {
+            Sec<U> step;
             try {
-                mapped = mapper.apply(r);
+                step = next.apply(r);
             } catch (Throwable t) {
-                downstreamError.accept(t);
+                downstream.finish(null, t);
                 return;
             }
-            downstreamResult.accept(mapped);
+            current.set(step);
+            if (downstream.isCancelled()) step.cancel();
+            step.forwardTo(downstream);
+        }).doOnError(t -> downstream.finish(null, t)).callMeWhenDone();
+
+        downstream.cancelUpstream = () -> {
+            Sec<U> step = current.get();
+            if (step != null) step.cancel();
+            else cancel();
         };
+        return downstream;
     }
 
-    public <U> Sec<U> map(Function<T, U> map) {
-        // for now just use the callbacks. this may change in the future
-        SecAdapter.SecWithAdapter<U> secWithAdapter;
-        synchronized (lock) {
-            if (callbacksSet) throw new IllegalStateException("callbacks already set up");
-            callbacksSet = true;
+    /**
+     * fails with a {@link TimeoutException} if this takes too long, and cancels this. it's only as
+     * precise as the shared {@link TimingWheel}.
+     * @param timeout how long to wait, in milliseconds
+     * @return the result or error of this, or the timeout
+     */
+    public Sec<T> timeout(long timeout) {
+        return timeout(timeout, TimingWheel.getShared());
+    }
 
-            secWithAdapter = createThreadless();
+    /**
+     * timeout() on a given wheel, for tests
+     */
+    Sec<T> timeout(long timeout, TimingWheel timingWheel) {
+        Sec<T> downstream = new Sec<>();
+        handOverExecutor(downstream);
+        TimingWheel.Timeout timer = timingWheel.schedule(timeout,
+                () -> {
+                    if (downstream.tryFinish(null, Signals.timedOut("timed out after " + timeout + " ms")))
+                        cancel();
+                });
+
+        doOnResult(r -> {
+            timer.cancel();
+            downstream.tryFinish(r, null);
+        }).doOnError(t -> {
+            timer.cancel();
+            downstream.tryFinish(null, t);
+        }).callMeWhenDone();
+
+        downstream.cancelUpstream = () -> {
+            timer.cancel();
+            cancel();
+        };
+        return downstream;
+    }
 
-            SecAdapter<U> adapter = secWithAdapter.secAdapter();
-            this.onResult = applyMap(map, adapter::provideResult, adapter::throwError);
-            this.onError = adapter::throwError;
-        }
+    /**
+     * @param executor where the callbacks (and map stages) after this should run
+     * @return the result or error of this, delivered on the executor
+     */
+    public Sec<T> observeOn(Executor executor) {
+        Sec<T> downstream = new Sec<>();
+        doOnResult(r -> downstream.finishOn(executor, r, null))
+                .doOnError(t -> downstream.finishOn(executor, null, t))
+                .callMeWhenDone();
+
+        downstream.cancelUpstream = this::cancel;
+        return downstream;
+    }
 
-        if (isFinished()) callCallbacks();
+    /**
+     * gives up on this. the producer gets the chance to stop the work first, and can refuse if it's too
+     * late. once cancelled, this finishes with a {@link CancellationException}, whatever the producer
+     * provides after is dropped, and whatever this was made from (with the operators above) is cancelled.
+     * @return true if it was cancelled, false if it finished (or is finishing) anyway
+     */
+    public boolean cancel() {
+        if ((state & COMPLETING) != 0) return false;
+
+        BooleanSupplier canceller = CANCELLER.getAndSet(this, TOO_LATE);
+        if (canceller != null && !canceller.getAsBoolean()) return false;
+        if (!complete(null, Signals.CANCELLED, CANCELLED)) return false;
+
+        Runnable upstream = cancelUpstream;
+        if (upstream != null) upstream.run();
+        return true;
+    }
 
-        return secWithAdapter.sec();
+    public boolean isCancelled() {
+        return (state & CANCELLED) != 0;
     }
 
-    public Sec<T> mapError(Function<Throwable, Throwable> map) {
-        // for now just use the callbacks. this may change in the future
-        SecAdapter.SecWithAdapter<T> secWithAdapter;
-        synchronized (lock) {
-            if (callbacksSet) throw new IllegalStateException("callbacks already set up");
-            callbacksSet = true;
+    private void setCanceller(BooleanSupplier canceller) {
+        if (CANCELLER.compareAndSet(this, null, canceller)) return;
 
-            secWithAdapter = createThreadless();
+        // cancelled before there was a way to stop the work. cancel() takes the slot before it
+        // finishes this as cancelled, so don't wait for CANCELLED to show up, it might not yet
+        if (CANCELLER.get(this) == TOO_LATE) canceller.getAsBoolean();
+    }
 
-            SecAdapter<T> adapter = secWithAdapter.secAdapter();
-            this.onResult = adapter::provideResult;
-            this.onError = applyMap(map, adapter::throwError, adapter::throwError);
-        }
+    /**
+     * moves the callback executor to the end of the chain, so the steps in between don't each hop
+     */
+    private void handOverExecutor(Sec<?> downstream) {
+        downstream.callbackExecutor = callbackExecutor;
+        callbackExecutor = null;
+    }
 
-        if (isFinished()) callCallbacks();
+    private void forwardTo(Sec<T> downstream) {
+        doOnResult(r -> downstream.finish(r, null))
+                .doOnError(t -> downstream.finish(null, t))
+                .callMeWhenDone();
+    }
 
-        return secWithAdapter.sec();
+    private void finishOn(Executor executor, Object r, Throwable t) {
+        try {
+            executor.execute(() -> finish(r, t));
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "executor rejected callbacks, failing here instead");
+            finish(null, e);
+        }
     }
 
     public void callMeWhenDone() {
-        synchronized (lock) {
-            if (callbacksSet) throw new IllegalStateException("callMeWhenDone() cannot be called twice");
-            callbacksSet = true;
+        int s = STATE.getAndAccumulate(this, ARMED, OR);
+        if ((s & ARMED) != 0) throw new IllegalStateException("callMeWhenDone() cannot be called twice");
+        if ((s & FINISHED) != 0) callCallbacks();
+    }
+
+    /**
+     * runs the map stages on the result or error. only call this once FINISHED is set, from the thread
+     * calling callbacks, or from the consumer before it's armed.
+     */
+    private void settle() {
+        for (Stage stage = stages; stage != null; stage = stage.next) {
+            try {
+                if (error == null) {
+                    if (stage.resultMapper != null) result = stage.resultMapper.apply(result);
+                } else if (stage.errorMapper != null) {
+                    Throwable mapped = stage.errorMapper.apply(error);
+                    if (mapped == null) throw new IllegalArgumentException("throwable cannot be null");
+                    error = mapped;
+                }
+            } catch (Throwable t) {
+                result = null;
+                error = t;
+            }
         }
+        stages = null;
+        lastStage = null;
+        STATE.getAndAccumulate(this, SETTLED, OR);
+    }
 
-        if (isFinished()) callCallbacks();
+    private void settleForRead(String notFinishedMessage) {
+        if (!isFinished()) throw new IllegalStateException(notFinishedMessage);
+        if ((state & SETTLED) == 0) settle();   // not armed, so nothing else is touching it
     }
 
     private void callCallbacks() {
-        synchronized (lock) {
-            assert finished;
-            if (!callbacksSet) return; // callbacks aren't ready
-            if (callbacksCalled) return; // don't call back twice
-            callbacksCalled = true;
+        Executor executor = callbackExecutor;
+        if (executor == null) {
+            runCallbacks();
+            return;
         }
 
+        try {
+            executor.execute(this::runCallbacks);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "callback executor rejected callbacks, running them here instead");
+            runCallbacks();
+        }
+    }
+
+    private void runCallbacks() {
+        boolean transport = CallbackExecutors.isTransportThread();
+        long start = transport ? System.nanoTime() : 0;
+
+        settle();
+
         try {
             if (error == null && onResult != null)
                 onResult.accept(result);
@@ -163,39 +389,130 @@ public class Sec<T> {
         } catch (Throwable t) {
             Log.e(TAG, "error during onError callback", t);
         }
+
+        if (transport) CallbackExecutors.recordTransportCallback(System.nanoTime() - start, error == null ? onResult : onError);
+    }
+
+    private void finish(Object r, Throwable t) {
+        if (tryFinish(r, t) || isCancelled()) return;
+        throw new IllegalStateException("a result or error has already been provided");
+    }
+
+    /**
+     * @return false if a result or error was already provided
+     */
+    private boolean tryFinish(Object r, Throwable t) {
+        return complete(r, t, 0);
+    }
+
+    private boolean complete(Object r, Throwable t, int bits) {
+        int s;
+        do {
+            s = state;
+            if ((s & COMPLETING) != 0) return false;
+        } while (!STATE.compareAndSet(this, s, s | COMPLETING | bits));
+
+        result = r;
+        error = t;
+
+        s = STATE.getAndAccumulate(this, FINISHED, OR);
+        if ((s & ARMED) != 0) callCallbacks();
+        return true;
     }
 
     private class Adapter implements SecAdapter<T> {
         @Override
         public void provideResult(T r) {
-            synchronized (lock) {
-                if (finished) throw new IllegalStateException("a result or error has already been provided");
-                finished = true;
-
-                result = r;
-            }
-
-            callCallbacks();
+            finish(r, null);
         }
 
         @Override
         public void throwError(Throwable t) {
             if (t == null) throw new IllegalArgumentException("throwable cannot be null");
-            synchronized (lock) {
-                if (finished) throw new IllegalStateException("a result or error has already been provided");
-                finished = true;
-
-                error = t;
-            }
+            finish(null, t);
+        }
 
-            callCallbacks();
+        @Override
+        public void setCanceller(BooleanSupplier canceller) {
+            Sec.this.setCanceller(canceller);
         }
     }
 
     public static <T> Sec<T> premeditatedError(Throwable t) {
-        SecAdapter.SecWithAdapter<T> secWithAdapter = createThreadless();
-        secWithAdapter.secAdapter().throwError(t);
-        return secWithAdapter.sec();
+        if (t == null) throw new IllegalArgumentException("throwable cannot be null");
+        Sec<T> sec = new Sec<>();
+        sec.finish(null, t);
+        return sec;
+    }
+
+    /**
+     * @param secs the secs to wait for
+     * @return all of the results in the same order, or the first error (which cancels the rest)
+     */
+    public static <T> Sec<List<T>> all(List<Sec<T>> secs) {
+        Sec<List<T>> combined = new Sec<>();
+        if (secs.isEmpty()) {
+            combined.finish(new ArrayList<T>(), null);
+            return combined;
+        }
+
+        Object[] results = new Object[secs.size()];
+        AtomicInteger remaining = new AtomicInteger(secs.size());
+        for (int i = 0; i < results.length; i++) {
+            int index = i;
+            secs.get(i).doOnResult(r -> {
+                results[index] = r;
+                if (remaining.decrementAndGet() > 0) return;
+
+                List<T> list = new ArrayList<>(results.length);
+                for (Object result : results) list.add(unchecked(result));
+                combined.tryFinish(list, null);
+            }).doOnError(t -> {
+                if (combined.tryFinish(null, t)) cancelAll(secs);
+            }).callMeWhenDone();
+        }
+
+        combined.cancelUpstream = () -> cancelAll(secs);
+        return combined;
+    }
+
+    /**
+     * @param secs the secs to wait for
+     * @return the first result (which cancels the rest), or if they all fail, the first error with the rest suppressed
+     */
+    public static <T> Sec<T> any(List<Sec<T>> secs) {
+        Sec<T> combined = new Sec<>();
+        if (secs.isEmpty()) {
+            combined.finish(null, new NoSuchElementException("nothing to wait for"));
+            return combined;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(secs.size());
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        for (Sec<T> sec : secs) {
+            sec.doOnResult(r -> {
+                if (combined.tryFinish(r, null)) cancelAll(secs);
+            }).doOnError(t -> {
+                if (!firstError.compareAndSet(null, t)) {
+                    // signals might be shared, don't pile things onto them
+                    Throwable first = firstError.get();
+                    if (first != t && !Signals.isSignal(first)) first.addSuppressed(t);
+                }
+                if (remaining.decrementAndGet() == 0) combined.tryFinish(null, firstError.get());
+            }).callMeWhenDone();
+        }
+
+        combined.cancelUpstream = () -> cancelAll(secs);
+        return combined;
+    }
+
+    private static void cancelAll(List<? extends Sec<?>> secs) {
+        for (Sec<?> sec : secs) sec.cancel();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unchecked(Object o) {
+        return (T) o;
     }
 
 }
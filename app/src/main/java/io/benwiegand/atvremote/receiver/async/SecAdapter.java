@@ -1,10 +1,19 @@
 package io.benwiegand.atvremote.receiver.async;
 
+import java.util.function.BooleanSupplier;
+
 public interface SecAdapter<T> {
 
     void provideResult(T result);
     void throwError(Throwable t);
 
+    /**
+     * lets the consumer cancel. set this before handing out the Sec.
+     * @param canceller called at most once, before the Sec finishes as cancelled. it should stop the work
+     *                  and return true, or return false if it's too late to stop it.
+     */
+    void setCanceller(BooleanSupplier canceller);
+
     record SecWithAdapter<T>(Sec<T> sec, SecAdapter<T> secAdapter) {}
 
     static <T> SecWithAdapter<T> createThreadless() {
@@ -0,0 +1,68 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import android.util.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * runs tasks one at a time, in submission order, on a shared {@link Executor}.
+ * it only ever occupies one thread of the underlying pool, so a slow task holds up this queue but
+ * nobody else's.
+ */
+public class SerialExecutor implements Executor {
+    private static final String TAG = SerialExecutor.class.getSimpleName();
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private volatile boolean shutdown = false;
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) throw new RejectedExecutionException("serial executor is shut down");
+        tasks.add(task);
+
+        // only the submitter that takes pending from 0 to 1 starts the drain
+        if (pending.getAndIncrement() == 0) executor.execute(this::drain);
+    }
+
+    private void drain() {
+        do {
+            Runnable task = tasks.poll();
+            assert task != null;
+            if (shutdown) continue;
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Log.e(TAG, "unexpected error in serial task", t);
+            }
+        } while (pending.decrementAndGet() > 0);
+    }
+
+    /**
+     * @return the number of tasks waiting or running
+     */
+    public int getBacklog() {
+        return pending.get();
+    }
+
+    /**
+     * stops accepting tasks. queued tasks are dropped, a running task is left to finish.
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+}
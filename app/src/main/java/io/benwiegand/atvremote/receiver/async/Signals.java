@@ -0,0 +1,112 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * exceptions for routine outcomes (cancelled, replaced, timed out, connection closed) rather than bugs.
+ * <p>
+ *     signals don't capture a stack trace. that's most of what creating an exception costs, and for
+ *     these it would only ever point at the plumbing. the constants here are shared, so they don't
+ *     allocate at all, but that means nothing may change them: the cause is locked to null and the
+ *     stack trace can't be set.
+ * </p>
+ * <p>
+ *     {@link Throwable#addSuppressed(Throwable)} is final, and the JDK exceptions these extend don't have
+ *     the constructor that turns suppression off, so it can't be refused here. don't add suppressed
+ *     exceptions to a signal (see {@link #isSignal(Throwable)}). signals that don't need a JDK type,
+ *     like {@code RemoteProtocolException.signal()}, turn suppression off in the constructor.
+ * </p>
+ */
+public final class Signals {
+
+    /**
+     * marks an exception as a signal, which might be shared
+     */
+    public interface Signal {}
+
+    public static final class Cancelled extends CancellationException implements Signal {
+        private Cancelled() {
+            super("cancelled");
+            super.initCause(null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+        @Override
+        public synchronized Throwable initCause(Throwable cause) {
+            throw new IllegalStateException("signals can't have a cause");
+        }
+
+        @Override
+        public void setStackTrace(StackTraceElement[] stackTrace) {}
+    }
+
+    public static final class TimedOut extends TimeoutException implements Signal {
+        private TimedOut(String message) {
+            super(message);
+            super.initCause(null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+        @Override
+        public synchronized Throwable initCause(Throwable cause) {
+            throw new IllegalStateException("signals can't have a cause");
+        }
+
+        @Override
+        public void setStackTrace(StackTraceElement[] stackTrace) {}
+    }
+
+    public static final class ConnectionClosed extends IOException implements Signal {
+        private ConnectionClosed(String message) {
+            super(message, null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+        @Override
+        public synchronized Throwable initCause(Throwable cause) {
+            throw new IllegalStateException("signals can't have a cause");
+        }
+
+        @Override
+        public void setStackTrace(StackTraceElement[] stackTrace) {}
+    }
+
+    public static final CancellationException CANCELLED = new Cancelled();
+    public static final IOException CONNECTION_CLOSED = new ConnectionClosed("connection closed");
+
+    private Signals() {}
+
+    /**
+     * @param message what timed out
+     * @return a new timeout signal, without a stack trace
+     */
+    public static TimeoutException timedOut(String message) {
+        return new TimedOut(message);
+    }
+
+    /**
+     * @param message why there's no connection
+     * @return a new connection closed signal, without a stack trace
+     */
+    public static IOException connectionClosed(String message) {
+        return new ConnectionClosed(message);
+    }
+
+    public static boolean isSignal(Throwable t) {
+        return t instanceof Signal;
+    }
+}
@@ -0,0 +1,200 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.benwiegand.atvremote.receiver.stuff.LatencyHistogram;
+
+/**
+ * hashed timing wheel for coarse timeouts, shared by every connection.
+ * <p>
+ *     scheduling and cancelling are O(1). each tick only looks at one slot, so the cost of
+ *     expiring doesn't depend on how many timeouts are pending. timeouts fire up to about a tick late.
+ * </p>
+ * <p>
+ *     the tick thread sleeps while nothing is scheduled. expired tasks run on the
+ *     {@link WorkerPool}, not the tick thread.
+ * </p>
+ */
+public class TimingWheel {
+    private static final String TAG = TimingWheel.class.getSimpleName();
+
+    private static final long TICK_DURATION = 100;
+    private static final int WHEEL_SIZE = 512;  // must be a power of 2
+
+    private static final TimingWheel shared = new TimingWheel("timing-wheel", WorkerPool.getShared());
+
+    public record Stats(int pending, long expired, long cancelled, LatencyHistogram expiryLateness) {
+        @Override
+        public String toString() {
+            return "pending=" + pending + " expired=" + expired + " cancelled=" + cancelled
+                    + " lateness " + expiryLateness;
+        }
+    }
+
+    public class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private long remainingRounds = 0;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * cancels the timeout if it hasn't fired yet
+         * @return true if it was cancelled by this call
+         */
+        public boolean cancel() {
+            if (!done.compareAndSet(false, true)) return false;
+            pending.decrementAndGet();
+            cancelled.increment();
+            return true;
+        }
+
+        public boolean isDone() {
+            return done.get();
+        }
+    }
+
+    private final String name;
+    private final Executor executor;
+    private final LongSupplier clock;
+
+    // tick thread only
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Timeout>[] wheel = new ArrayDeque[WHEEL_SIZE];
+    private long tick = 0;
+    private long startTime = 0;
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Object lock = new Object();
+    private Thread tickThread = null;
+    private boolean idle = false;
+
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LatencyHistogram expiryLateness = new LatencyHistogram();
+
+    public TimingWheel(String name, Executor executor) {
+        this(name, executor, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clock the time in milliseconds, for tests
+     */
+    public TimingWheel(String name, Executor executor, LongSupplier clock) {
+        this.name = name;
+        this.executor = executor;
+        this.clock = clock;
+        for (int i = 0; i < WHEEL_SIZE; i++) wheel[i] = new ArrayDeque<>();
+    }
+
+    public static TimingWheel getShared() {
+        return shared;
+    }
+
+    /**
+     * schedules a task
+     * @param delay delay in milliseconds
+     * @param task runs on the worker pool once the delay has passed, unless cancelled first
+     * @return a handle to cancel it with
+     */
+    public Timeout schedule(long delay, Runnable task) {
+        Timeout timeout = new Timeout(clock.getAsLong() + Math.max(delay, 0), task);
+        pending.incrementAndGet();
+        newTimeouts.add(timeout);
+
+        synchronized (lock) {
+            if (tickThread == null) {
+                startTime = clock.getAsLong();
+                tickThread = new Thread(this::tickLoop, name);
+                tickThread.setDaemon(true);
+                tickThread.start();
+            } else if (idle) {
+                lock.notify();
+            }
+        }
+
+        return timeout;
+    }
+
+    private void tickLoop() {
+        try {
+            while (true) {
+                waitForNextTick();
+                transferNewTimeouts();
+                expireSlot(wheel[(int) (tick & (WHEEL_SIZE - 1))]);
+                tick++;
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "tick thread interrupted", e);
+        }
+    }
+
+    private void waitForNextTick() throws InterruptedException {
+        synchronized (lock) {
+            // skip ahead instead of ticking through a wheel that's empty
+            while (pending.get() == 0 && newTimeouts.isEmpty()) {
+                idle = true;
+                lock.wait();
+                idle = false;
+                tick = Math.max(tick, (clock.getAsLong() - startTime) / TICK_DURATION);
+            }
+
+            long wait;
+            while ((wait = startTime + (tick + 1) * TICK_DURATION - clock.getAsLong()) > 0)
+                lock.wait(wait);
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isDone()) continue;
+
+            long deadlineTick = (timeout.deadline - startTime + TICK_DURATION - 1) / TICK_DURATION;
+            // slot n is expired at the end of tick n
+            long ticks = Math.max(deadlineTick - 1, tick);
+            timeout.remainingRounds = (ticks - tick) / WHEEL_SIZE;
+            wheel[(int) (ticks & (WHEEL_SIZE - 1))].add(timeout);
+        }
+    }
+
+    private void expireSlot(ArrayDeque<Timeout> slot) {
+        long now = clock.getAsLong();
+        Iterator<Timeout> iter = slot.iterator();
+        while (iter.hasNext()) {
+            Timeout timeout = iter.next();
+            if (timeout.isDone()) {
+                iter.remove();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                iter.remove();
+                if (!timeout.done.compareAndSet(false, true)) continue;
+                pending.decrementAndGet();
+                expired.increment();
+                expiryLateness.record((now - timeout.deadline) * 1000000);
+                executor.execute(timeout.task);
+            }
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(pending.get(), expired.sum(), cancelled.sum(), expiryLateness);
+    }
+}
@@ -0,0 +1,152 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * process-wide pools for handler work, shared by every connection.
+ * <p>
+ *     unlike a plain {@link ThreadPoolExecutor} with an unbounded queue (which never grows past its
+ *     core size), this starts a new thread whenever all current ones are busy, up to
+ *     its max size. only then does work start queueing. idle threads above the core size
+ *     die off after {@link #KEEP_ALIVE}, so the thread count doesn't follow remotes coming and going.
+ * </p>
+ * <p>
+ *     work that must stay in order (like a connection's operations) should go through a
+ *     {@link SerialExecutor} on top of this pool.
+ * </p>
+ */
+public class WorkerPool implements Executor {
+    private static final long KEEP_ALIVE = 10000;
+
+    private static final WorkerPool shared = new WorkerPool("worker", 2, 16, Process.THREAD_PRIORITY_DEFAULT);
+    private static final WorkerPool input = new WorkerPool("input", 1, 4, Process.THREAD_PRIORITY_DISPLAY);
+
+    public record Stats(int poolSize, int maxPoolSize, int activeThreads, int largestPoolSize, int queued, long completedTasks) {
+        @Override
+        public String toString() {
+            return "threads=" + poolSize + " (max " + maxPoolSize + ", peak " + largestPoolSize + ")"
+                    + " busy=" + activeThreads
+                    + " queued=" + queued
+                    + " completed=" + completedTasks;
+        }
+    }
+
+    private final GrowFirstQueue queue = new GrowFirstQueue();
+    private final ThreadPoolExecutor executor;
+
+    private WorkerPool(String name, int coreThreads, int maxThreads, int threadPriority) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = r -> new Thread(() -> {
+            // android thread priority can only be set from the thread itself
+            Process.setThreadPriority(threadPriority);
+            queue.threads.incrementAndGet();
+            try {
+                r.run();
+            } finally {
+                queue.threads.decrementAndGet();
+            }
+        }, name + "-" + threadNumber.incrementAndGet());
+
+        executor = new CountingExecutor(coreThreads, maxThreads, queue, threadFactory,
+                (r, e) -> {
+                    // at max threads, queue it after all
+                    if (e.isShutdown()) throw new RejectedExecutionException("worker pool is shut down");
+                    queue.forceOffer(r);
+                });
+        queue.executor = executor;
+    }
+
+    public static WorkerPool getShared() {
+        return shared;
+    }
+
+    /**
+     * @return the pool for latency-critical input, which runs at display priority
+     */
+    public static WorkerPool getInput() {
+        return input;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * starts the core threads now instead of on first use
+     */
+    public void prestartCoreThreads() {
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * creates a serial sub-queue on this pool
+     * @return a new serial executor
+     */
+    public SerialExecutor createSerialExecutor() {
+        return new SerialExecutor(this);
+    }
+
+    public Stats getStats() {
+        return new Stats(
+                executor.getPoolSize(),
+                executor.getMaximumPoolSize(),
+                executor.getActiveCount(),
+                executor.getLargestPoolSize(),
+                queue.size(),
+                executor.getCompletedTaskCount());
+    }
+
+    /**
+     * keeps the queue's busy count, since getActiveCount() takes the executor's main lock
+     */
+    private static class CountingExecutor extends ThreadPoolExecutor {
+        private final GrowFirstQueue queue;
+
+        private CountingExecutor(int coreThreads, int maxThreads, GrowFirstQueue queue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+            super(coreThreads, maxThreads, KEEP_ALIVE, TimeUnit.MILLISECONDS, queue, threadFactory, handler);
+            this.queue = queue;
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            queue.busy.incrementAndGet();
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            queue.busy.decrementAndGet();
+        }
+    }
+
+    /**
+     * refuses to queue while the pool can still grow, which makes the executor start a thread instead.
+     * it's on the path of every execute(), so it only reads counters and never takes the executor's lock.
+     */
+    private static class GrowFirstQueue extends LinkedBlockingQueue<Runnable> {
+        private final AtomicInteger threads = new AtomicInteger();    // worker threads alive
+        private final AtomicInteger busy = new AtomicInteger();       // worker threads running a task
+        private ThreadPoolExecutor executor = null;
+
+        @Override
+        public boolean offer(Runnable r) {
+            int threads = this.threads.get();
+            if (busy.get() >= threads && threads < executor.getMaximumPoolSize())
+                return false;
+            return super.offer(r);
+        }
+
+        private void forceOffer(Runnable r) {
+            super.offer(r);
+        }
+    }
+}
@@ -30,6 +30,18 @@ public class KeyUtil {
         }
     }
 
+    private static class SharedSecureRandom {
+        // the default provider doesn't block on entropy, unlike getInstanceStrong()
+        private static final SecureRandom instance = new SecureRandom();
+    }
+
+    /**
+     * @return a process-wide non-blocking secure random, which is cheaper than making one per use
+     */
+    public static SecureRandom getSharedSecureRandom() {
+        return SharedSecureRandom.instance;
+    }
+
     public static SecureRandom getSecureRandom() {
         try {
             return SecureRandom.getInstanceStrong();
@@ -1,6 +1,7 @@
 package io.benwiegand.atvremote.receiver.auth.ssl;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.bouncycastle.asn1.x509.X509Name;
@@ -14,6 +15,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Path;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -25,6 +27,7 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
+import java.security.spec.ECGenParameterSpec;
 import java.time.Instant;
 import java.util.Date;
 
@@ -43,16 +46,44 @@ public class KeystoreManager {
     // before you scream, the password serves no purpose in this case. it's not part of the threat model
     private static final char[] KEYSTORE_PASSWORD = "hunter2".toCharArray();
 
-    private static final String KEYPAIR_ALGORITHM = "RSA";
-    private static final String SIGNING_ALGORITHM = "SHA256WithRSAEncryption";
-    private static final int KEY_SIZE = 4096;
+    private static final String EC_CURVE = "secp256r1";
+    private static final int RSA_KEY_SIZE = 4096;
 
     private static final String SSL_SERVER_KEY_ALIAS = "atvr_server_key";
     public static final String CERTIFICATE_COMMON_NAME = "Bob";    // bob is a pretty common name
 
+    /**
+     * the kind of server key. P-256 is much cheaper than RSA-4096 to generate and to handshake with,
+     * which matters on a TV cpu. RSA is what older versions generated.
+     */
+    public enum KeyType {
+        EC("EC", "SHA256WithECDSA"),
+        RSA("RSA", "SHA256WithRSAEncryption");
+
+        private final String algorithm;
+        private final String signingAlgorithm;
+
+        KeyType(String algorithm, String signingAlgorithm) {
+            this.algorithm = algorithm;
+            this.signingAlgorithm = signingAlgorithm;
+        }
+
+        private void initialize(KeyPairGenerator keygen) throws InvalidAlgorithmParameterException {
+            switch (this) {
+                case EC -> keygen.initialize(new ECGenParameterSpec(EC_CURVE));
+                case RSA -> keygen.initialize(RSA_KEY_SIZE);
+            }
+        }
+
+        private boolean matches(Certificate cert) {
+            return algorithm.equals(cert.getPublicKey().getAlgorithm());
+        }
+    }
+
     private final File keystoreFile;
     private KeyStore keystore = null;
     private boolean modified = false;
+    private Certificate replacedCertificate = null;
 
     public KeystoreManager(Context context) {
         Path sslPath = context.getFilesDir().toPath().resolve("ssl");
@@ -158,20 +189,18 @@ public class KeystoreManager {
         return !keystoreFile.isFile() || keystoreFile.delete();
     }
 
-    private KeyPair generateKeypair() {
+    static KeyPair generateKeypair(KeyType keyType) {
         try {
-            Log.d(TAG, "generating a " + KEY_SIZE + "-bit " + KEYPAIR_ALGORITHM + " key");
-            KeyPairGenerator keygen = KeyPairGenerator.getInstance(KEYPAIR_ALGORITHM);
-            keygen.initialize(KEY_SIZE);
+            KeyPairGenerator keygen = KeyPairGenerator.getInstance(keyType.algorithm);
+            keyType.initialize(keygen);
             return keygen.genKeyPair();
-        } catch (NoSuchAlgorithmException e) {
+        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
             throw new UnsupportedOperationException("no sufficient keypair algorithm found", e);
         }
     }
 
-    private Certificate signKeypair(KeyPair keypair) {
+    static Certificate signKeypair(KeyPair keypair, KeyType keyType) {
         try {
-            Log.d(TAG, "self-signing keypair with X509");
             X509V3CertificateGenerator certgen = new X509V3CertificateGenerator();
             X509Name commonName = new X509Name("CN=" + CERTIFICATE_COMMON_NAME);
             certgen.setIssuerDN(commonName);
@@ -180,7 +209,7 @@ public class KeystoreManager {
             certgen.setSerialNumber(BigInteger.valueOf(42069));
             certgen.setNotBefore(Date.from(Instant.ofEpochSecond(0)));              // the date might be incorrectly set on first boot
             certgen.setNotAfter(Date.from(Instant.ofEpochSecond(99999999999L)));    // should hold us off until the far-off year of 5138
-            certgen.setSignatureAlgorithm(SIGNING_ALGORITHM);
+            certgen.setSignatureAlgorithm(keyType.signingAlgorithm);
             return certgen.generate(keypair.getPrivate());
         } catch (CertificateEncodingException e) {
             throw new RuntimeException("failed to encode certificate", e);
@@ -193,22 +222,45 @@ public class KeystoreManager {
         }
     }
 
-    public void initSSL() {
+    /**
+     * makes sure there's a server key of the given type, generating one if needed. a key of another
+     * type is replaced, which changes the certificate fingerprint, so remotes paired against the old one
+     * have to pair again. see {@link #getReplacedSSLCertificate()}.
+     */
+    public void initSSL(KeyType keyType) {
         if (keystore == null) throw new IllegalStateException("keystore must be loaded first");
 
         try {
-            if (keystore.containsAlias(SSL_SERVER_KEY_ALIAS)) return;   // for now assume any existing key is sufficient
+            Certificate current = keystore.getCertificate(SSL_SERVER_KEY_ALIAS);
+            if (current != null) {
+                if (keyType.matches(current)) return;
+                Log.i(TAG, "replacing " + current.getPublicKey().getAlgorithm() + " key with " + keyType + ", paired remotes will see a new fingerprint");
+                replacedCertificate = current;
+            }
 
-            KeyPair keypair = generateKeypair();
-            Certificate cert = signKeypair(keypair);
+            Log.d(TAG, "generating a " + keyType + " key");
+            long startTime = SystemClock.elapsedRealtime();
+            KeyPair keypair = generateKeypair(keyType);
+            Log.d(TAG, "keypair generated in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+
+            Log.d(TAG, "self-signing keypair with X509");
+            Certificate cert = signKeypair(keypair, keyType);
 
             keystore.setKeyEntry(SSL_SERVER_KEY_ALIAS, keypair.getPrivate(), KEYSTORE_PASSWORD, new Certificate[] {cert});
+            modified = true;
         } catch (KeyStoreException e) {
             throw new RuntimeException("failed to store self-signed keypair", e);
         }
 
     }
 
+    /**
+     * @return the certificate that {@link #initSSL(KeyType)} replaced, or null if it didn't replace one
+     */
+    public Certificate getReplacedSSLCertificate() {
+        return replacedCertificate;
+    }
+
     public Certificate getSSLCertificate() {
         if (keystore == null) throw new IllegalStateException("keystore must be loaded first");
 
@@ -50,8 +50,8 @@ public class ApplicationOverlayOutputHandler implements PermissionRequestOutput,
     }
 
     @Override
-    public PairingDialog createPairingDialog(PairingCallback callback, int pairingCode, byte[] fingerprint) {
-        return new PairingDialog(context, callback, pairingCode, fingerprint);
+    public PairingDialog createPairingDialog(PairingCallback callback, int pairingCode, byte[] fingerprint, byte[] replacedFingerprint) {
+        return new PairingDialog(context, callback, pairingCode, fingerprint, replacedFingerprint);
     }
 
 }
@@ -4,5 +4,5 @@ import io.benwiegand.atvremote.receiver.protocol.PairingCallback;
 import io.benwiegand.atvremote.receiver.ui.PairingDialog;
 
 public interface PairingOverlayOutput extends OutputHandler {
-    PairingDialog createPairingDialog(PairingCallback callback, int pairingCode, byte[] fingerprint);
+    PairingDialog createPairingDialog(PairingCallback callback, int pairingCode, byte[] fingerprint, byte[] replacedFingerprint);
 }
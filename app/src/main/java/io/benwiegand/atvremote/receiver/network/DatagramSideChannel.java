@@ -0,0 +1,198 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static io.benwiegand.atvremote.receiver.network.SocketUtil.tryClose;
+import static io.benwiegand.atvremote.receiver.protocol.DatagramProtocol.*;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.benwiegand.atvremote.receiver.auth.ssl.KeyUtil;
+import io.benwiegand.atvremote.receiver.protocol.DatagramProtocol;
+
+/**
+ * one udp socket shared by every connection's datagram session (see {@link DatagramProtocol}).
+ * datagrams are read and decrypted on the event loop, there's no read thread.
+ */
+public class DatagramSideChannel implements Closeable {
+    private static final String TAG = DatagramSideChannel.class.getSimpleName();
+    private static final String CIPHER = "AES/GCM/NoPadding";
+
+    public interface Receiver {
+        /**
+         * called on the event loop for each accepted datagram. this must not block.
+         * @param sequence the datagram's sequence number. datagrams can arrive out of order.
+         * @param body the decrypted body
+         */
+        void onDatagram(long sequence, ByteBuffer body);
+    }
+
+    public class Session implements Closeable {
+        private final int id;
+        private final byte[] key;
+        private final SecretKeySpec keySpec;
+        private final Cipher cipher;
+        private final Receiver receiver;
+
+        // event loop only
+        private final ReplayWindow replayWindow = new ReplayWindow();
+
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder stale = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Session(int id, byte[] key, Receiver receiver) throws GeneralSecurityException {
+            this.id = id;
+            this.key = key;
+            this.keySpec = new SecretKeySpec(key, "AES");
+            this.cipher = Cipher.getInstance(CIPHER);
+            this.receiver = receiver;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public byte[] getKey() {
+            return key.clone();
+        }
+
+        private void receive(ByteBuffer datagram) {
+            long sequence = datagram.getLong(4);
+            if (replayWindow.isSeen(sequence)) {
+                // a copy of one that already arrived, or too late to tell
+                stale.increment();
+                return;
+            }
+
+            byte[] body;
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, keySpec, new GCMParameterSpec(TAG_SIZE * 8, datagram.array(), datagram.arrayOffset(), HEADER_SIZE));
+                cipher.updateAAD(datagram.array(), datagram.arrayOffset(), HEADER_SIZE);
+                body = cipher.doFinal(datagram.array(), datagram.arrayOffset() + HEADER_SIZE, datagram.remaining() - HEADER_SIZE);
+            } catch (AEADBadTagException e) {
+                rejected.increment();
+                return;
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "failed to decrypt datagram", e);
+                rejected.increment();
+                return;
+            }
+
+            replayWindow.markSeen(sequence);
+            accepted.increment();
+            receiver.onDatagram(sequence, ByteBuffer.wrap(body));
+        }
+
+        @Override
+        public void close() {
+            sessions.remove(id, this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "session %08x: accepted=%d stale=%d rejected=%d",
+                    id, accepted.sum(), stale.sum(), rejected.sum());
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = KeyUtil.getSharedSecureRandom();
+
+    private final LongAdder unknownSession = new LongAdder();
+
+    public DatagramSideChannel(NetworkEventLoop eventLoop) throws IOException {
+        channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(0));
+        } catch (Throwable t) {
+            tryClose(channel);
+            throw t;
+        }
+
+        eventLoop.execute(() -> {
+            try {
+                eventLoop.register(channel, SelectionKey.OP_READ, key -> receiveAll());
+            } catch (IOException e) {
+                Log.e(TAG, "failed to register datagram channel", e);
+                tryClose(channel);
+            }
+        });
+    }
+
+    /**
+     * @return the port datagrams go to
+     */
+    public int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * opens a session with a new id and key
+     * @param receiver gets the datagrams for this session
+     * @return the session. closing it stops datagrams for it.
+     */
+    public Session open(Receiver receiver) throws GeneralSecurityException {
+        byte[] key = new byte[KEY_SIZE];
+        random.nextBytes(key);
+
+        while (true) {
+            Session session = new Session(random.nextInt(), key, receiver);
+            if (sessions.putIfAbsent(session.getId(), session) == null) return session;
+        }
+    }
+
+    private void receiveAll() {
+        try {
+            while (true) {
+                receiveBuffer.clear();
+                if (channel.receive(receiveBuffer) == null) return;
+                receiveBuffer.flip();
+
+                // too short to be anything
+                if (receiveBuffer.remaining() < HEADER_SIZE + TAG_SIZE) continue;
+
+                Session session = sessions.get(receiveBuffer.getInt(0));
+                if (session == null) {
+                    unknownSession.increment();
+                    continue;
+                }
+
+                session.receive(receiveBuffer);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "datagram channel died", e);
+            tryClose(channel);
+        }
+    }
+
+    @Override
+    public void close() {
+        tryClose(channel);
+        sessions.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "port " + getPort() + ", " + sessions.size() + " sessions, unknown=" + unknownSession.sum();
+    }
+}
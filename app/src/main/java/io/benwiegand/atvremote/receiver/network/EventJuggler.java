@@ -2,39 +2,52 @@ package io.benwiegand.atvremote.receiver.network;
 
 import android.content.Context;
 import android.util.Base64;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.gson.Gson;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import io.benwiegand.atvremote.receiver.R;
+import io.benwiegand.atvremote.receiver.async.CallbackExecutors;
 import io.benwiegand.atvremote.receiver.async.Sec;
 import io.benwiegand.atvremote.receiver.async.SecAdapter;
+import io.benwiegand.atvremote.receiver.async.SerialExecutor;
+import io.benwiegand.atvremote.receiver.async.Signals;
+import io.benwiegand.atvremote.receiver.async.TimingWheel;
+import io.benwiegand.atvremote.receiver.async.WorkerPool;
 import io.benwiegand.atvremote.receiver.auth.ssl.KeyUtil;
 import io.benwiegand.atvremote.receiver.network.event.EventResult;
 import io.benwiegand.atvremote.receiver.network.event.InFlightEvent;
+import io.benwiegand.atvremote.receiver.network.event.InFlightEvents;
+import io.benwiegand.atvremote.receiver.network.event.IncomingOperation;
+import io.benwiegand.atvremote.receiver.network.event.InputAdmission;
+import io.benwiegand.atvremote.receiver.network.event.OutputScheduler;
 import io.benwiegand.atvremote.receiver.network.event.QueuedDisconnection;
 import io.benwiegand.atvremote.receiver.network.event.QueuedEvent;
 import io.benwiegand.atvremote.receiver.network.event.QueuedOutput;
 import io.benwiegand.atvremote.receiver.network.event.QueuedResponse;
+import io.benwiegand.atvremote.receiver.protocol.BinaryProtocol;
+import io.benwiegand.atvremote.receiver.protocol.DatagramProtocol;
 import io.benwiegand.atvremote.receiver.protocol.MalformedEventException;
 import io.benwiegand.atvremote.receiver.protocol.OperationDefinition;
 import io.benwiegand.atvremote.receiver.protocol.RemoteProtocolException;
+import io.benwiegand.atvremote.receiver.protocol.json.BatchParams;
+import io.benwiegand.atvremote.receiver.protocol.json.BatchResponse;
 import io.benwiegand.atvremote.receiver.protocol.json.ErrorDetails;
+import io.benwiegand.atvremote.receiver.stuff.LatencyHistogram;
 import io.benwiegand.atvremote.receiver.stuff.ThrowingRunnable;
 import io.benwiegand.atvremote.receiver.ui.ErrorMessageException;
 import io.benwiegand.atvremote.receiver.util.ErrorUtil;
@@ -42,8 +55,6 @@ import io.benwiegand.atvremote.receiver.util.ErrorUtil;
 import static io.benwiegand.atvremote.receiver.network.SocketUtil.tryClose;
 import static io.benwiegand.atvremote.receiver.protocol.ProtocolConstants.*;
 
-import javax.net.ssl.SSLSocket;
-
 /**
  * it juggles the events between the devices
  */
@@ -52,54 +63,146 @@ public class EventJuggler implements Closeable {
 
     private static final int BASE64_FLAGS = Base64.DEFAULT | Base64.NO_WRAP | Base64.NO_PADDING;
     private static final long EVENT_TIMEOUT = 30000;
+    private static final long MIN_PING_TIMEOUT = 2000;
+    private static final int MAX_OUTPUT_BATCH_SIZE = 64;
+    private static final int MAX_BATCH_OPERATIONS = 256;
+    private static final int MAX_PENDING_INPUT = 64;
+    private static final int BATCH_OPCODE = BinaryProtocol.opcodeOf(OP_BATCH);
+    private static final int CURSOR_MOVE_OPCODE = BinaryProtocol.opcodeOf(OP_CURSOR_MOVE);
 
     private static final Gson gson = new Gson();
 
-    private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(2, 8, 3, TimeUnit.SECONDS, new LinkedBlockingDeque<>());
-    private final SSLSocket socket;
+    private static final RemoteProtocolException FRAME_TOO_LARGE = RemoteProtocolException.signal(R.string.protocol_error_frame_too_large, "event too large");
+
+    // operations run in order on one of two lanes, everything else can go straight to the pool
+    private final WorkerPool workerPool = WorkerPool.getShared();
+    private final SerialExecutor inputLane = WorkerPool.getInput().createSerialExecutor();
+    private final SerialExecutor backgroundLane = workerPool.createSerialExecutor();
+    private final LatencyHistogram inputLaneLatency = new LatencyHistogram();
+    private final LatencyHistogram backgroundLaneLatency = new LatencyHistogram();
+    private final InputAdmission inputAdmission;
+    private final TLSChannel channel;
 
     // incoming events
-    private final Thread inThread = new Thread(runLoop(this::inputLoop));
     private final TCPReader reader;
     private final Map<String, OperationDefinition> operationMap = new ConcurrentHashMap<>();
+    private final OperationDefinition[] operationsByOpcode = new OperationDefinition[BinaryProtocol.opcodeCount()];
     private final Semaphore outQueueSemaphore = new Semaphore(0);
 
     // outgoing events
     private final Thread outThread = new Thread(runLoop(this::outputLoop));
     private final TCPWriter writer;
-    private final Queue<QueuedOutput> outQueue = new ConcurrentLinkedQueue<>();
-    private final Map<String, InFlightEvent> responseMap = new ConcurrentHashMap<>();
+    private final OutputScheduler outQueue = new OutputScheduler();
+    private final TimingWheel timingWheel = TimingWheel.getShared();
+    private final InFlightEvents inFlightEvents = new InFlightEvents(timingWheel);
 
     // event ids
-    private final SecureRandom random = KeyUtil.getSecureRandom();
+    private final SecureRandom random = KeyUtil.getSharedSecureRandom();
     private final byte[] serialBuffer = new byte[3];
+    private long nextBinaryEventId = 0;
 
     // misc
     private final Context context;
     private final long pingInterval;
     private final long pingTimeout;
+    private final long batchLatencyCap;
+    private volatile long lastReceived = SystemClock.elapsedRealtime();
+    private volatile long pingSentAt = 0;    // when the last ping was flushed
+    private long pingQueuedFor = -1;    // output thread only, lastReceived as of the outstanding ping
+    private QueuedEvent queuedPing = null;    // output thread only, a ping that hasn't been flushed yet
+    private boolean pingWritten = false;    // output thread only, the queued ping is in the current batch
+    private final RttEstimator rtt = new RttEstimator();
+    private volatile TimingWheel.Timeout livenessCheck = null;
+    private volatile boolean unackedOperations = false;
     private final Consumer<Throwable> onDeath;
     private boolean onDeathCalled = false;
     private boolean dead = false;
-    private final Object handlingTimeoutsLock = new Object();
-    private boolean handlingTimeouts = false;
 
-    EventJuggler(Context context, SSLSocket socket, TCPReader reader, TCPWriter writer, Consumer<Throwable> onDeath, long pingInterval, long pingTimeout) {
+    EventJuggler(Context context, TLSChannel channel, TCPReader reader, TCPWriter writer, Consumer<Throwable> onDeath, long pingInterval, long pingTimeout, long batchLatencyCap, long inputMaxAge) {
         this.context = context;
-        this.socket = socket;
+        this.channel = channel;
         this.reader = reader;
         this.writer = writer;
         this.pingInterval = pingInterval;
         this.pingTimeout = pingTimeout;
+        this.batchLatencyCap = batchLatencyCap;
         this.onDeath = onDeath;
+        inputAdmission = new InputAdmission(inputLane, inputMaxAge, MAX_PENDING_INPUT, new InputAdmission.Handler() {
+            @Override
+            public void run(IncomingOperation operation) {
+                runOperation(operation, inputLaneLatency);
+            }
+
+            @Override
+            public void merged(IncomingOperation operation) {
+                // it still happened, just as part of a later call
+                if (operation.eventId() != null && shouldAcknowledge(operation.definition()))
+                    enqueueOutput(new QueuedResponse(operation.eventId(), operation.binaryFramed(), OP_CONFIRM, null), OutputScheduler.Priority.INPUT);
+                inputLaneLatency.recordSince(operation.receivedAt());
+            }
+
+            @Override
+            public void shed(IncomingOperation operation, RemoteProtocolException reason) {
+                if (operation.eventId() != null)
+                    enqueueOutput(createErrorResponse(operation.eventId(), operation.binaryFramed(), reason), OutputScheduler.Priority.INPUT);
+                inputLaneLatency.recordSince(operation.receivedAt());
+            }
+
+            @Override
+            public void setReadPaused(boolean paused) {
+                channel.setReadPaused(paused);
+            }
+        });
     }
 
     public void start(OperationDefinition[] operations) {
         for (OperationDefinition operation : operations) {
             operationMap.put(operation.operation(), operation);
+            int opcode = BinaryProtocol.opcodeOf(operation.operation());
+            if (opcode >= 0) operationsByOpcode[opcode] = operation;
         }
-        inThread.start();
+        lastReceived = SystemClock.elapsedRealtime();
+        reader.startDispatching(new TCPReader.FrameHandler() {
+            @Override
+            public void onFrame(String frame) {
+                lastReceived = SystemClock.elapsedRealtime();
+                if (frame.isEmpty()) return;
+                handleEvent(frame);
+            }
+
+            @Override
+            public void onBinaryFrame(ByteBuffer frame) {
+                lastReceived = SystemClock.elapsedRealtime();
+                handleBinaryFrame(frame);
+            }
+
+            @Override
+            public void onOversizedFrame(String head) {
+                lastReceived = SystemClock.elapsedRealtime();
+                rejectOversizedEvent(head);
+            }
+
+            @Override
+            public void onOversizedBinaryFrame(ByteBuffer head) {
+                lastReceived = SystemClock.elapsedRealtime();
+                switch (head.get()) {
+                    case BinaryProtocol.FRAME_LINE -> rejectOversizedEvent(decodeText(head));
+                    case BinaryProtocol.FRAME_OPERATION -> {
+                        String eventId = Long.toString(BinaryProtocol.readVarint(head));
+                        enqueueOutput(createErrorResponse(eventId, true, FRAME_TOO_LARGE), OutputScheduler.Priority.CONTROL);
+                    }
+                    default -> Log.w(TAG, "dropped oversized frame");
+                }
+            }
+
+            @Override
+            public void onClose(IOException reason) {
+                if (!dead) Log.e(TAG, "connection died:\n" + ErrorUtil.getLightStackTrace(reason));
+                onExit(reason);
+            }
+        });
         outThread.start();
+        checkLiveness();
     }
 
     public void close() {
@@ -112,52 +215,92 @@ public class EventJuggler implements Closeable {
             dead = true;
         }
 
-        tryClose(socket);
+        TimingWheel.Timeout liveness = livenessCheck;
+        if (liveness != null) liveness.cancel();
+
+        tryClose(channel);
         tryClose(reader);
         tryClose(writer);
 
         try {
-            inThread.interrupt();
             outThread.interrupt();
         } catch (Throwable t) {
-            Log.e(TAG, "failed to interrupt threads", t);
+            Log.e(TAG, "failed to interrupt output thread", t);
         }
 
         QueuedOutput entry;
         while ((entry = outQueue.poll()) != null) {
-            if (entry.type() == QueuedOutput.Type.EVENT)
-                ((QueuedEvent) entry).adapter().throwError(new IOException("connection closed"));
+            if (entry.type() == QueuedOutput.Type.EVENT && ((QueuedEvent) entry).claim())
+                ((QueuedEvent) entry).adapter().throwError(Signals.CONNECTION_CLOSED);
         }
 
-        threadPool.shutdown();
+        // no responses are coming for these anymore
+        inFlightEvents.failAll(Signals.CONNECTION_CLOSED);
+
+        inputLane.shutdown();
+        backgroundLane.shutdown();
     }
 
     public boolean isDead() {
         return dead;
     }
 
+    /**
+     * stops acknowledging successful calls to operations declared unacknowledged
+     */
+    public void enableUnackedOperations() {
+        unackedOperations = true;
+    }
+
+    /**
+     * @return the number of received operations waiting or running
+     */
+    public int getOperationBacklog() {
+        return inputLane.getBacklog() + backgroundLane.getBacklog();
+    }
+
+    /**
+     * @return time from receiving an input lane operation until it's handled
+     */
+    public LatencyHistogram getInputLaneLatency() {
+        return inputLaneLatency;
+    }
+
+    public InputAdmission getInputAdmission() {
+        return inputAdmission;
+    }
+
+    /**
+     * @return time from receiving a background lane operation until it's handled
+     */
+    public LatencyHistogram getBackgroundLaneLatency() {
+        return backgroundLaneLatency;
+    }
+
     public Sec<EventResult> sendEvent(String event) {
         SecAdapter.SecWithAdapter<EventResult> secWithAdapter = SecAdapter.createThreadless();
 
         QueuedEvent queuedEvent = new QueuedEvent(event, secWithAdapter.secAdapter());
-        enqueueOutput(queuedEvent);
+        secWithAdapter.secAdapter().setCanceller(() -> withdrawEvent(queuedEvent));
+        enqueueOutput(queuedEvent, OutputScheduler.Priority.STATE);
 
         // do this after to prevent race conditions while avoiding needing a lock
         if (dead) {
             removeOutputFromQueue(queuedEvent);
-            return Sec.premeditatedError(new IOException("connection is dead"));
+            return Sec.premeditatedError(Signals.connectionClosed("connection is dead"));
         }
 
         return secWithAdapter.sec();
     }
 
-    private void enqueueOutput(QueuedOutput output) {
-        outQueue.add(output);
+    private void enqueueOutput(QueuedOutput output, OutputScheduler.Priority priority) {
+        outQueue.add(output, priority);
         outQueueSemaphore.release();
     }
 
     /**
-     * not intended to be reliable, don't use this for anything important
+     * not intended to be reliable, it only frees up the queue early. to make sure an event isn't
+     * written, claim it (see {@link #withdrawEvent(QueuedEvent)}).
      * @param output queue entry to remove
      */
     private void removeOutputFromQueue(QueuedOutput output) {
@@ -165,44 +308,24 @@ public class EventJuggler implements Closeable {
             outQueueSemaphore.release();
     }
 
-    private QueuedResponse createErrorResponse(String eventId, ErrorDetails e) {
-        return new QueuedResponse("!" + eventId + " " + OP_ERR + " " + gson.toJson(e));
+    /**
+     * takes back an event that hasn't been written yet. once it's claimed here the writer skips it, even
+     * if it couldn't be pulled out of the queue.
+     * @param event the event
+     * @return false if it's already been written
+     */
+    private boolean withdrawEvent(QueuedEvent event) {
+        if (!event.claim()) return false;
+        removeOutputFromQueue(event);
+        return true;
     }
 
-    private QueuedResponse createErrorResponse(String eventId, Throwable t) {
-        return createErrorResponse(eventId, ErrorDetails.fromException(context, t));
+    private QueuedResponse createErrorResponse(String eventId, boolean binaryFramed, ErrorDetails e) {
+        return new QueuedResponse(eventId, binaryFramed, OP_ERR, gson.toJson(e));
     }
 
-    private void handleTimeouts() {
-        synchronized (handlingTimeoutsLock) {
-            if (handlingTimeouts) return;
-            if (responseMap.isEmpty()) return;
-            handlingTimeouts = true;
-            try {
-                threadPool.execute(() -> {
-                    try {
-                        List<String> expired = new LinkedList<>();
-                        for (Map.Entry<String, InFlightEvent> entry : responseMap.entrySet()) {
-                            if (entry.getValue().isExpired(EVENT_TIMEOUT))
-                                expired.add(entry.getKey());
-                        }
-
-                        for (String eventId : expired) {
-                            InFlightEvent inFlightEvent = responseMap.remove(eventId);
-                            if (inFlightEvent == null) continue;
-                            Log.d(TAG, "expiring event: " + eventId);
-                            threadPool.execute(() -> inFlightEvent.adapter()
-                                    .throwError(new RemoteProtocolException(R.string.protocol_error_event_timeout, "timed out")));
-                        }
-                    } finally {
-                        handlingTimeouts = false;
-                    }
-                });
-            } catch (Throwable t) {
-                handlingTimeouts = false;
-                throw t;
-            }
-        }
+    private QueuedResponse createErrorResponse(String eventId, boolean binaryFramed, Throwable t) {
+        return createErrorResponse(eventId, binaryFramed, ErrorDetails.fromException(context, t));
     }
 
     private void handleResponse(String line) {
@@ -210,18 +333,21 @@ public class EventJuggler implements Closeable {
         if (i < 2) throw new MalformedEventException("response has no event id");
         if (line.length() < i + 2) throw new MalformedEventException("response is empty");
 
-        threadPool.execute(() -> {
-            String eventId = line.substring(1, i);
+        completeEvent(line.substring(1, i), line.substring(i + 1));
+    }
 
-            InFlightEvent inFlightEvent = responseMap.remove(eventId);
+    private void completeEvent(String eventId, String responseLine) {
+        workerPool.execute(() -> CallbackExecutors.runAsTransport(() -> {
+            InFlightEvent inFlightEvent = inFlightEvents.remove(eventId);
             if (inFlightEvent == null) {
                 // the event could have timed out
                 Log.w(TAG, "got response for non-existent event: " + eventId);
                 return;
             }
+            rtt.sample(System.nanoTime() - inFlightEvent.sentAt());
 
-            inFlightEvent.adapter().provideResult(new EventResult(line.substring(i + 1)));
-        });
+            inFlightEvent.adapter().provideResult(new EventResult(responseLine));
+        }));
     }
 
     private void handleEvent(String line) {
@@ -234,48 +360,301 @@ public class EventJuggler implements Closeable {
         int iId = line.indexOf(' ');
         if (iId < 1 || line.length() < iId + 2) throw new MalformedEventException("no operation");
 
-        threadPool.execute(() -> {
-            String eventId = line.substring(0, iId);
-
-            int iExtra = line.indexOf(' ', iId + 1);
-            String op, extra;
-            if (iExtra < 0) {
-                op = line.substring(iId + 1);
-                extra = null;
-            } else {
-                op = line.substring(iId + 1, iExtra);
-                extra = line.substring(iExtra + 1);
+        String eventId = line.substring(0, iId);
+
+        int iExtra = line.indexOf(' ', iId + 1);
+        String op, extra;
+        if (iExtra < 0) {
+            op = line.substring(iId + 1);
+            extra = null;
+        } else {
+            op = line.substring(iId + 1, iExtra);
+            extra = line.substring(iExtra + 1);
+        }
+
+        if (OP_BATCH.equals(op)) {
+            dispatchBatch(eventId, false, extra);
+            return;
+        }
+
+        OperationDefinition definition = operationMap.get(op);
+
+        if (definition == null) {
+            enqueueOutput(new QueuedResponse(eventId, false, OP_UNSUPPORTED, null), OutputScheduler.Priority.CONTROL);
+            return;
+        }
+
+        dispatchOperation(new IncomingOperation(eventId, false, definition, extra, null, System.nanoTime()));
+    }
+
+    /**
+     * rejects an event that was too large to read, if it's possible to tell which one it was
+     * @param head the start of the event line
+     */
+    private void rejectOversizedEvent(String head) {
+        int iId = head.indexOf(' ');
+        if (head.startsWith("!") || iId < 1) {
+            Log.w(TAG, "dropped oversized response or event");
+            return;
+        }
+
+        String eventId = head.substring(0, iId);
+        enqueueOutput(createErrorResponse(eventId, false, FRAME_TOO_LARGE), OutputScheduler.Priority.CONTROL);
+    }
+
+    private void handleBinaryFrame(ByteBuffer frame) {
+        if (!frame.hasRemaining()) return;
+        switch (frame.get()) {
+            case BinaryProtocol.FRAME_LINE -> {
+                if (frame.hasRemaining()) handleEvent(decodeText(frame));
             }
+            case BinaryProtocol.FRAME_OPERATION -> handleBinaryOperation(frame);
+            case BinaryProtocol.FRAME_RESPONSE -> handleBinaryResponse(frame);
+            default -> throw new MalformedEventException("unknown binary frame kind");
+        }
+    }
 
-            OperationDefinition definition = operationMap.get(op);
+    /**
+     * @param opcode an opcode read off the wire, which can be anything a varint decodes to
+     * @return the op, or null if there's none with that opcode
+     */
+    private OperationDefinition lookupOpcode(long opcode) {
+        if (opcode < 0 || opcode >= operationsByOpcode.length) return null;
+        return operationsByOpcode[(int) opcode];
+    }
 
-            if (definition == null) {
-                enqueueOutput(new QueuedResponse("!" + eventId + " " + OP_UNSUPPORTED));
-                return;
+    private void handleBinaryOperation(ByteBuffer frame) {
+        String eventId = Long.toString(BinaryProtocol.readVarint(frame));
+        long opcode = BinaryProtocol.readVarint(frame);
+
+        if (opcode == BATCH_OPCODE) {
+            dispatchBatch(eventId, true, frame.hasRemaining() ? decodeText(frame) : null);
+            return;
+        }
+
+        OperationDefinition definition = lookupOpcode(opcode);
+        if (definition == null) {
+            enqueueOutput(new QueuedResponse(eventId, true, OP_UNSUPPORTED, null), OutputScheduler.Priority.CONTROL);
+            return;
+        }
+
+        // the frame is only valid until this returns
+        ByteBuffer payload = ByteBuffer.allocate(frame.remaining());
+        payload.put(frame);
+        payload.flip();
+
+        long receivedAt = System.nanoTime();
+        if (definition.binaryHandler() != null) {
+            dispatchOperation(new IncomingOperation(eventId, true, definition, null, payload, receivedAt));
+        } else {
+            dispatchOperation(new IncomingOperation(eventId, true, definition, payload.hasRemaining() ? decodeText(payload) : null, null, receivedAt));
+        }
+    }
+
+    private void handleBinaryResponse(ByteBuffer frame) {
+        String eventId = Long.toString(BinaryProtocol.readVarint(frame));
+        if (!frame.hasRemaining()) throw new MalformedEventException("response is empty");
+        String status = BinaryProtocol.statusString(frame.get());
+
+        completeEvent(eventId, frame.hasRemaining() ? status + " " + decodeText(frame) : status);
+    }
+
+    /**
+     * @return a receiver for a new datagram side channel session, which feeds input to this connection
+     */
+    public DatagramSideChannel.Receiver createDatagramReceiver() {
+        return new DatagramSideChannel.Receiver() {
+            // the remote sends its total cursor movement. the newest total is the target, and the lane
+            // moves the cursor by however far it is from what was applied so far. overflow is fine,
+            // only the difference matters.
+            private final Object cursorLock = new Object();
+            private int targetX = 0, targetY = 0;
+            private int appliedX = 0, appliedY = 0;
+            private long targetSequence = -1;
+            private long targetReceivedAt = 0;
+            private boolean applyQueued = false;
+
+            @Override
+            public void onDatagram(long sequence, ByteBuffer body) {
+                lastReceived = SystemClock.elapsedRealtime();
+                try {
+                    switch (body.get()) {
+                        case DatagramProtocol.KIND_CURSOR -> {
+                            int x = body.getInt();
+                            int y = body.getInt();
+                            synchronized (cursorLock) {
+                                // an older total arriving late, cursor totals only ever move forward
+                                if (sequence <= targetSequence) return;
+                                targetSequence = sequence;
+                                targetX = x;
+                                targetY = y;
+                                targetReceivedAt = System.nanoTime();
+                                if (applyQueued) return;
+                                applyQueued = true;
+                            }
+                            inputLane.execute(this::applyCursor);
+                        }
+                        case DatagramProtocol.KIND_OPERATION -> handleDatagramOperation(body);
+                        default -> throw new MalformedEventException("unknown datagram kind");
+                    }
+                } catch (MalformedEventException | BufferUnderflowException e) {
+                    // it's authenticated, so it's the remote's bug. but it's not worth the connection.
+                    Log.w(TAG, "dropped malformed datagram: " + e);
+                }
             }
 
+            private void applyCursor() {
+                int dx, dy;
+                long receivedAt;
+                synchronized (cursorLock) {
+                    applyQueued = false;
+                    dx = targetX - appliedX;
+                    dy = targetY - appliedY;
+                    appliedX = targetX;
+                    appliedY = targetY;
+                    receivedAt = targetReceivedAt;
+                }
+
+                runCursorMove(dx, dy, receivedAt);
+            }
+        };
+    }
+
+    /**
+     * moves the cursor, on the input lane
+     */
+    private void runCursorMove(int dx, int dy, long receivedAt) {
+        OperationDefinition definition = operationsByOpcode[CURSOR_MOVE_OPCODE];
+        if (definition == null || definition.binaryHandler() == null) return;
+
+        while (dx != 0 || dy != 0) {
+            // the binary layout only fits int16 deltas
+            short stepX = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, dx));
+            short stepY = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, dy));
+            dx -= stepX;
+            dy -= stepY;
+
+            ByteBuffer payload = ByteBuffer.allocate(4);
+            payload.putShort(stepX).putShort(stepY);
+            payload.flip();
+            runOperation(new IncomingOperation(null, true, definition, null, payload, receivedAt), inputLaneLatency);
+        }
+    }
+
+    private void handleDatagramOperation(ByteBuffer body) {
+        long opcode = BinaryProtocol.readVarint(body);
+        OperationDefinition definition = lookupOpcode(opcode);
+        if (definition == null || !definition.inputLane() || definition.binaryHandler() == null)
+            throw new MalformedEventException("op can't be sent as a datagram: " + opcode);
+
+        // datagrams get lost, so only calls that can be lost without leaving anything half done
+        IncomingOperation operation = new IncomingOperation(null, true, definition, null, body.slice(), System.nanoTime());
+        if (!operation.isSheddable())
+            throw new MalformedEventException("op call can't be sent as a datagram: " + opcode);
+
+        dispatchOperation(operation);
+    }
+
+    private static String decodeText(ByteBuffer buffer) {
+        String text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), CHARSET);
+        buffer.position(buffer.limit());
+        return text;
+    }
+
+    /**
+     * runs the sub-operations of a batch in order, as one task, and sends one aggregated response.
+     * the batch goes on the input lane only if everything in it belongs there.
+     */
+    private void dispatchBatch(String eventId, boolean binaryFramed, String extra) {
+        BatchParams params;
+        try {
+            if (extra == null) throw new MalformedEventException("no batch provided");
+            params = gson.fromJson(extra, BatchParams.class);
+            if (params == null || params.operations() == null) throw new MalformedEventException("no batch provided");
+            if (params.operations().size() > MAX_BATCH_OPERATIONS) throw new MalformedEventException("too many operations in batch");
+        } catch (Throwable t) {
+            enqueueOutput(createErrorResponse(eventId, binaryFramed, t), OutputScheduler.Priority.CONTROL);
+            return;
+        }
+
+        List<BatchParams.BatchOperation> operations = params.operations();
+        OperationDefinition[] definitions = new OperationDefinition[operations.size()];
+        boolean inputLaneOnly = true;
+        for (int i = 0; i < definitions.length; i++) {
+            BatchParams.BatchOperation operation = operations.get(i);
+            if (operation == null || operation.op() == null) continue;
+            definitions[i] = operationMap.get(operation.op());
+            if (definitions[i] == null || !definitions[i].inputLane()) inputLaneOnly = false;
+        }
+
+        long receivedAt = System.nanoTime();
+        SerialExecutor lane = inputLaneOnly ? inputLane : backgroundLane;
+        LatencyHistogram latency = inputLaneOnly ? inputLaneLatency : backgroundLaneLatency;
+        OutputScheduler.Priority priority = responsePriority(inputLaneOnly);
+
+        lane.execute(() -> {
+            List<BatchResponse.BatchResult> results = new ArrayList<>(definitions.length);
+            boolean disconnect = false;
             try {
-                String responseExtra = definition.handler().apply(extra);
-                String response = "!" + eventId + " " + OP_CONFIRM;
-                if (responseExtra != null) response += " " + responseExtra;
-                enqueueOutput(new QueuedResponse(response));
-            } catch (Throwable t) {
-                if (!(t instanceof ErrorMessageException)) Log.e(TAG, "unexpected error while handling", t);
-                enqueueOutput(createErrorResponse(eventId, t));
-                if (definition.closeConnectionOnFailure())
-                    enqueueOutput(new QueuedDisconnection());
+                for (int i = 0; i < definitions.length; i++) {
+                    OperationDefinition definition = definitions[i];
+                    if (definition == null) {
+                        results.add(new BatchResponse.BatchResult(OP_UNSUPPORTED, null, null));
+                        if (params.stopOnError()) break;
+                        continue;
+                    }
+
+                    try {
+                        results.add(new BatchResponse.BatchResult(OP_CONFIRM, definition.handler().apply(operations.get(i).extra()), null));
+                    } catch (Throwable t) {
+                        if (!(t instanceof ErrorMessageException)) Log.e(TAG, "unexpected error while handling batch", t);
+                        results.add(new BatchResponse.BatchResult(OP_ERR, null, ErrorDetails.fromException(context, t)));
+                        disconnect = definition.closeConnectionOnFailure();
+                        if (params.stopOnError() || disconnect) break;
+                    }
+                }
+
+                enqueueOutput(new QueuedResponse(eventId, binaryFramed, OP_CONFIRM, gson.toJson(new BatchResponse(results))), priority);
+                if (disconnect) enqueueOutput(new QueuedDisconnection(), OutputScheduler.Priority.CONTROL);
+            } finally {
+                latency.recordSince(receivedAt);
             }
         });
+    }
 
+    private static OutputScheduler.Priority responsePriority(boolean inputLane) {
+        return inputLane ? OutputScheduler.Priority.INPUT : OutputScheduler.Priority.CONTROL;
     }
 
-    private void inputLoop() throws IOException, InterruptedException {
-        while (!dead) {
-            String line = reader.nextLine(pingTimeout);
-            if (line == null) throw new IOException("no message or ping received within timeout");
-            if (line.isEmpty()) continue;
+    private boolean shouldAcknowledge(OperationDefinition definition) {
+        return !(unackedOperations && definition.unacknowledged());
+    }
+
+    private void dispatchOperation(IncomingOperation operation) {
+        // input goes through admission, which can merge or drop it if it's piling up
+        if (operation.definition().inputLane()) {
+            inputAdmission.admit(operation);
+            return;
+        }
 
-            handleEvent(line);
+        backgroundLane.execute(() -> runOperation(operation, backgroundLaneLatency));
+    }
+
+    private void runOperation(IncomingOperation operation, LatencyHistogram latency) {
+        OperationDefinition definition = operation.definition();
+        OutputScheduler.Priority priority = responsePriority(definition.inputLane());
+        boolean respond = operation.eventId() != null;
+        try {
+            String responseExtra = operation.handle();
+            if (respond && shouldAcknowledge(definition))
+                enqueueOutput(new QueuedResponse(operation.eventId(), operation.binaryFramed(), OP_CONFIRM, responseExtra), priority);
+        } catch (Throwable t) {
+            if (!(t instanceof ErrorMessageException)) Log.e(TAG, "unexpected error while handling", t);
+            if (respond) enqueueOutput(createErrorResponse(operation.eventId(), operation.binaryFramed(), t), priority);
+            if (definition.closeConnectionOnFailure())
+                enqueueOutput(new QueuedDisconnection(), OutputScheduler.Priority.CONTROL);
+        } finally {
+            latency.recordSince(operation.receivedAt());
         }
     }
 
@@ -293,9 +672,14 @@ public class EventJuggler implements Closeable {
     private String generateEventId() {
         String eventId;
         do {
+            if (writer.isBinary()) {
+                // binary event ids are varints, so keep them small
+                eventId = Long.toString(nextBinaryEventId++);
+                continue;
+            }
             random.nextBytes(serialBuffer);
             eventId = Base64.encodeToString(serialBuffer, BASE64_FLAGS);
-        } while (responseMap.containsKey(eventId));
+        } while (inFlightEvents.contains(eventId));
         return eventId;
     }
 
@@ -304,42 +688,135 @@ public class EventJuggler implements Closeable {
         return new QueuedEvent(OP_PING, secWithAdapter.secAdapter());
     }
 
-    private void outputLoop() throws IOException, InterruptedException {
-        while (!dead) {
-            if (outQueueSemaphore.availablePermits() == 0) handleTimeouts();
-
-            QueuedOutput output;
-            if (outQueueSemaphore.tryAcquire(pingInterval, TimeUnit.MILLISECONDS)) {
-                output = outQueue.remove();
-            } else {
-                output = createPing();
+    /**
+     * queues an output in the writer's current batch
+     * @param output the output
+     * @return false if the connection is closing and nothing else should be written
+     */
+    private boolean queueOutput(QueuedOutput output) throws IOException {
+        switch (output.type()) {
+            case RESPONSE -> {
+                QueuedResponse response = (QueuedResponse) output;
+                writer.queueResponse(response.eventId(), response.binaryFramed(), response.status(), response.extra());
             }
-
-            switch (output.type()) {
-                case RESPONSE -> {
-                    QueuedResponse response = (QueuedResponse) output;
-                    writer.sendLine(response.response());
-                }
-                case EVENT -> {
-                    QueuedEvent event = (QueuedEvent) output;
-                    try {
-                        String eventId = generateEventId();
-                        InFlightEvent collision = responseMap.putIfAbsent(eventId, event.toInFlightEvent());
-                        assert collision == null; // this should be impossible
-                        writer.sendLine(eventId + " " + event.event());
-                    } catch (Throwable t) {
-                        threadPool.execute(() -> event.adapter().throwError(t));
-                        throw t;
-                    }
-                }
-                case DISCONNECTION -> {
-                    Log.i(TAG, "disconnection event");
-                    tryClose(this);
+            case EVENT -> {
+                QueuedEvent event = (QueuedEvent) output;
+                if (!event.claim()) return true;    // withdrawn
+                String eventId = null;
+                try {
+                    String id = generateEventId();
+                    inFlightEvents.add(id, event.adapter(), event.enqueuedAt(), event.enqueuedAt() + EVENT_TIMEOUT - SystemClock.elapsedRealtime());
+                    eventId = id;
+                    writer.queueEvent(eventId, event.event());
+                    if (event == queuedPing) pingWritten = true;
+                } catch (Throwable t) {
+                    // if it's tracked, take it back first so the timeout or close() can't fail it again
+                    if (eventId != null && inFlightEvents.remove(eventId) == null) throw t;
+                    workerPool.execute(() -> event.adapter().throwError(t));
+                    throw t;
                 }
             }
+            case DISCONNECTION -> {
+                Log.i(TAG, "disconnection event");
+                writer.flush();
+                tryClose(this);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * drains everything that's ready in the out queue into one batch. while a burst is coming in,
+     * it lingers for more output, but never longer than the batch latency cap.
+     */
+    private void writeBatch() throws IOException, InterruptedException {
+        long batchStart = SystemClock.elapsedRealtime();
+        int batched = 0;
+
+        while (queueOutput(outQueue.poll())) {
+            batched++;
+            if (batched >= MAX_OUTPUT_BATCH_SIZE) break;
+            if (outQueueSemaphore.tryAcquire()) continue;
+
+            // a single output isn't a burst, don't make it wait
+            long remaining = batchStart + batchLatencyCap - SystemClock.elapsedRealtime();
+            if (batched < 2 || remaining <= 0) break;
+            if (!outQueueSemaphore.tryAcquire(remaining, TimeUnit.MILLISECONDS)) break;
+        }
+
+        writer.flush();
+        if (pingWritten) {
+            // the timeout starts when it's actually sent, not when it was queued
+            pingSentAt = writer.getLastSent();
+            queuedPing = null;
+            pingWritten = false;
+        }
+    }
+
+    /**
+     * @return how long to wait for a ping response before declaring the remote dead
+     */
+    private long getPingTimeout() {
+        long max = Math.max(pingTimeout - pingInterval, MIN_PING_TIMEOUT);
+        return rtt.getTimeout(MIN_PING_TIMEOUT, max);
+    }
+
+    /**
+     * declares the remote dead if nothing has come from it for longer than a ping and its response
+     * should take. this runs on the timing wheel so a stuck output thread can't hold it up.
+     */
+    private void checkLiveness() {
+        if (dead) return;
+        long now = SystemClock.elapsedRealtime();
+        long timeout = getPingTimeout();
+        long received = lastReceived;
+
+        // a ping that was flushed late still gets its full timeout
+        long deadline = Math.max(received + pingInterval, pingSentAt) + timeout;
+        if (now >= deadline) {
+            IOException e = new IOException("nothing received in " + (now - received) + " ms, no response to ping within " + timeout + " ms (" + rtt + ")");
+            Log.e(TAG, "connection died:\n" + ErrorUtil.getLightStackTrace(e));
+            onExit(e);
+            return;
+        }
+
+        livenessCheck = timingWheel.schedule(deadline - now, this::checkLiveness);
+    }
+
+    /**
+     * writes output as it comes in, and pings the remote when it goes quiet.
+     * <p>
+     *     only incoming frames show that the remote is alive, so a ping is sent once nothing has been
+     *     received for the ping interval, whether or not output is still going out. the deadline for the
+     *     response is enforced by {@link #checkLiveness()}.
+     * </p>
+     */
+    private void outputLoop() throws IOException, InterruptedException {
+        CallbackExecutors.markTransportThread();
+        while (!dead) {
+            long received = lastReceived;
+            boolean pingOutstanding = pingQueuedFor == received;
+            long wait = pingOutstanding ? pingInterval : received + pingInterval - SystemClock.elapsedRealtime();
+
+            if (outQueueSemaphore.tryAcquire(Math.max(wait, 0), TimeUnit.MILLISECONDS)) {
+                writeBatch();
+            } else if (!pingOutstanding && lastReceived == received && SystemClock.elapsedRealtime() - received >= pingInterval) {
+                pingQueuedFor = received;
+                queuedPing = createPing();
+                enqueueOutput(queuedPing, OutputScheduler.Priority.KEEPALIVE);
+            }
         }
     }
 
+    public OutputScheduler getOutputQueue() {
+        return outQueue;
+    }
+
+    public RttEstimator getRtt() {
+        return rtt;
+    }
+
     private Runnable runLoop(ThrowingRunnable loop) {
         return () -> {
             Throwable exitThrowable = null;
@@ -355,17 +832,21 @@ public class EventJuggler implements Closeable {
                 Log.e(TAG, "unexpected error in connection", t);
                 exitThrowable = t;
             } finally {
-                boolean closeMe, callOnDeath;
-                synchronized (onDeath) {
-                    closeMe = !dead;
-                    if (dead) exitThrowable = null; // discard reactions from an intentional close
-                    callOnDeath = !onDeathCalled;
-                    onDeathCalled = true;
-                }
-                if (closeMe) tryClose(this);
-                if (callOnDeath) onDeath.accept(exitThrowable);
+                onExit(exitThrowable);
             }
         };
     }
 
+    private void onExit(Throwable exitThrowable) {
+        boolean closeMe, callOnDeath;
+        synchronized (onDeath) {
+            closeMe = !dead;
+            if (dead) exitThrowable = null; // discard reactions from an intentional close
+            callOnDeath = !onDeathCalled;
+            onDeathCalled = true;
+        }
+        if (closeMe) tryClose(this);
+        if (callOnDeath) onDeath.accept(exitThrowable);
+    }
+
 }
@@ -0,0 +1,133 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static io.benwiegand.atvremote.receiver.network.SocketUtil.tryClose;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * runs connection init (TLS handshake, version exchange, auth, metadata) on a small pool of
+ * workers, so one slow remote can't stop everyone else from connecting.
+ * <p>
+ *     handshakes are limited per address and in total, anything over the limit is dropped right
+ *     away. every handshake has a deadline starting from accept, after which its channel is closed.
+ * </p>
+ */
+public class HandshakeStage implements Closeable {
+    private static final String TAG = HandshakeStage.class.getSimpleName();
+
+    private static final int WORKER_COUNT = 4;
+    private static final int MAX_QUEUED_HANDSHAKES = 16;
+    private static final int MAX_HANDSHAKES_PER_ADDRESS = 2;
+    private static final long HANDSHAKE_DEADLINE = 15000;
+
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+            WORKER_COUNT, WORKER_COUNT, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_HANDSHAKES),
+            r -> new Thread(r, "handshake-worker"));
+    private final ScheduledThreadPoolExecutor deadlines = new ScheduledThreadPoolExecutor(1);
+
+    private final Map<InetAddress, Integer> handshakesPerAddress = new ConcurrentHashMap<>();
+    private final HandshakeStats stats = new HandshakeStats();
+
+    public HandshakeStage() {
+        workers.allowCoreThreadTimeOut(true);
+        deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * queues a handshake for a newly accepted channel. if it can't be taken, the channel is closed.
+     * @param channel the accepted channel
+     * @param handshake blocking connection init. it's considered successful if the channel is
+     *                  still open when it returns, so it must close the channel when it turns a
+     *                  remote away.
+     */
+    public void submit(TLSChannel channel, Runnable handshake) {
+        long acceptTime = SystemClock.elapsedRealtime();
+        InetAddress address = channel.getInetAddress();
+
+        if (handshakesPerAddress.merge(address, 1, Integer::sum) > MAX_HANDSHAKES_PER_ADDRESS) {
+            Log.w(TAG, "too many concurrent handshakes from " + address + ", dropping connection");
+            releaseAddress(address);
+            stats.recordRejected();
+            tryClose(channel);
+            return;
+        }
+
+        AtomicBoolean finished = new AtomicBoolean(false);
+        ScheduledFuture<?> deadline = deadlines.schedule(() -> {
+            if (!finished.compareAndSet(false, true)) return;
+            Log.w(TAG, "handshake deadline passed for " + address + ", dropping connection");
+            stats.recordTimedOut();
+            tryClose(channel);
+        }, HANDSHAKE_DEADLINE, TimeUnit.MILLISECONDS);
+
+        try {
+            workers.execute(() -> {
+                try {
+                    handshake.run();
+                } catch (Throwable t) {
+                    Log.e(TAG, "unexpected error during handshake", t);
+                    tryClose(channel);
+                } finally {
+                    deadline.cancel(false);
+                    releaseAddress(address);
+
+                    if (finished.compareAndSet(false, true)) {
+                        long latency = SystemClock.elapsedRealtime() - acceptTime;
+                        TLSChannel.HandshakeInfo tlsInfo = channel.getHandshakeInfo();
+                        if (tlsInfo != null) stats.recordTLSHandshake(tlsInfo);
+                        if (channel.isClosed()) stats.recordFailed(latency);
+                        else stats.recordCompleted(latency);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "handshake queue is full, dropping connection from " + address);
+            deadline.cancel(false);
+            releaseAddress(address);
+            stats.recordRejected();
+            tryClose(channel);
+        }
+    }
+
+    private void releaseAddress(InetAddress address) {
+        handshakesPerAddress.computeIfPresent(address, (a, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * @return the number of accepted connections waiting for a handshake worker
+     */
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * @return the number of handshakes currently running
+     */
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    public HandshakeStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        deadlines.shutdownNow();
+    }
+}
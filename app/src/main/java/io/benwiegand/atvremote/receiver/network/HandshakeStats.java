@@ -0,0 +1,100 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counters for connection init, from accept until the connection is up (or isn't)
+ */
+public class HandshakeStats {
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder fullTLSHandshakes = new LongAdder();
+    private final LongAdder resumedTLSHandshakes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private volatile long lastLatency = 0;
+
+    void recordCompleted(long latency) {
+        completed.increment();
+        recordLatency(latency);
+    }
+
+    void recordTLSHandshake(TLSChannel.HandshakeInfo info) {
+        if (info.resumed()) resumedTLSHandshakes.increment();
+        else fullTLSHandshakes.increment();
+    }
+
+    void recordFailed(long latency) {
+        failed.increment();
+        recordLatency(latency);
+    }
+
+    void recordTimedOut() {
+        timedOut.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    private void recordLatency(long latency) {
+        totalLatency.add(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        lastLatency = latency;
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getFullTLSHandshakes() {
+        return fullTLSHandshakes.sum();
+    }
+
+    public long getResumedTLSHandshakes() {
+        return resumedTLSHandshakes.sum();
+    }
+
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    public double getAverageLatency() {
+        long count = getCompleted() + getFailed();
+        return count == 0 ? 0 : (double) totalLatency.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "completed=%d failed=%d timed out=%d rejected=%d tls full/resumed=%d/%d latency last/avg/max=%d/%.1f/%d ms",
+                getCompleted(),
+                getFailed(),
+                getTimedOut(),
+                getRejected(),
+                getFullTLSHandshakes(),
+                getResumedTLSHandshakes(),
+                getLastLatency(),
+                getAverageLatency(),
+                getMaxLatency());
+    }
+}
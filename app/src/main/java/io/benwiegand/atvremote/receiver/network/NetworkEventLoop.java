@@ -0,0 +1,168 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static io.benwiegand.atvremote.receiver.network.SocketUtil.tryClose;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.benwiegand.atvremote.receiver.async.CallbackExecutors;
+
+/**
+ * a single selector thread that drives the non-blocking sockets of every connection.
+ * <p>
+ *     all selection handlers and tasks run on the loop thread, so they must never block.
+ *     anything slow (like SSLEngine delegated tasks) should go through {@link #executeBlocking(Runnable)}.
+ * </p>
+ */
+public class NetworkEventLoop implements Closeable {
+    private static final String TAG = NetworkEventLoop.class.getSimpleName();
+
+    public interface SelectionHandler {
+        /**
+         * called on the loop thread when the key is ready for one or more of its interest ops
+         * @param key the selected key
+         */
+        void onSelected(SelectionKey key);
+
+        /**
+         * called once the loop is dead and its channels are closed. this might not be on the loop thread.
+         */
+        default void onLoopClosed() {}
+    }
+
+    private final Selector selector;
+    private final Thread loopThread = new Thread(this::loop, "network-event-loop");
+    private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    private final ExecutorService blockingExecutor = Executors.newCachedThreadPool();
+    private volatile boolean dead = false;
+
+    public NetworkEventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    public void start() {
+        loopThread.start();
+    }
+
+    public boolean isDead() {
+        return dead;
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * queues a task to run on the loop thread
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        taskQueue.add(task);
+        if (!inLoop()) selector.wakeup();
+    }
+
+    /**
+     * runs a task that may block somewhere other than the loop thread
+     * @param task the task
+     */
+    public void executeBlocking(Runnable task) {
+        blockingExecutor.execute(task);
+    }
+
+    /**
+     * registers a channel with this loop. must be called on the loop thread.
+     * @param channel a non-blocking channel
+     * @param ops initial interest ops
+     * @param handler the handler for selection events
+     * @return the selection key
+     */
+    SelectionKey register(SelectableChannel channel, int ops, SelectionHandler handler) throws IOException {
+        if (!inLoop()) throw new IllegalStateException("register() must be called on the loop thread");
+        return channel.register(selector, ops, handler);
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Log.e(TAG, "unexpected error in event loop task", t);
+            }
+        }
+    }
+
+    private void loop() {
+        Log.d(TAG, "starting event loop");
+        CallbackExecutors.markTransportThread();
+        try {
+            while (!dead) {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    if (!key.isValid()) continue;
+
+                    try {
+                        ((SelectionHandler) key.attachment()).onSelected(key);
+                    } catch (Throwable t) {
+                        Log.e(TAG, "unexpected error in selection handler", t);
+                    }
+                }
+
+                runTasks();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!dead) Log.e(TAG, "event loop died", e);
+        } finally {
+            Log.d(TAG, "event loop terminating. dead = " + dead);
+            dead = true;
+            closeChannels();
+        }
+    }
+
+    private void closeChannels() {
+        List<SelectionHandler> handlers = new ArrayList<>();
+        try {
+            for (SelectionKey key : selector.keys()) {
+                tryClose(key.channel());
+                if (key.attachment() instanceof SelectionHandler handler) handlers.add(handler);
+            }
+        } catch (ClosedSelectorException e) {
+            return;
+        }
+        tryClose(selector);
+
+        for (SelectionHandler handler : handlers) {
+            try {
+                handler.onLoopClosed();
+            } catch (Throwable t) {
+                Log.e(TAG, "unexpected error in selection handler", t);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        dead = true;
+        if (loopThread.isAlive()) selector.wakeup();
+        else closeChannels();
+        blockingExecutor.shutdown();
+    }
+}
@@ -0,0 +1,50 @@
+package io.benwiegand.atvremote.receiver.network;
+
+/**
+ * remembers which recent sequence numbers were already accepted, so a datagram is accepted once even if
+ * it arrives late or out of order (like the anti-replay window of IPsec).
+ * <p>
+ *     anything more than {@link #SIZE} behind the newest accepted sequence is too old to tell, and is
+ *     treated as seen. not thread safe.
+ * </p>
+ */
+public class ReplayWindow {
+    public static final int SIZE = 64;
+
+    private long highest = -1;
+    private long seen = 0;  // bit n set: highest - n was accepted
+
+    /**
+     * @param sequence the sequence number
+     * @return true if it was already accepted, or is too old to tell
+     */
+    public boolean isSeen(long sequence) {
+        if (sequence < 0) return true;
+        if (sequence > highest) return false;
+
+        long offset = highest - sequence;
+        if (offset >= SIZE) return true;
+        return (seen & (1L << offset)) != 0;
+    }
+
+    /**
+     * marks a sequence number as accepted. only call this once the datagram is authenticated.
+     * @param sequence the sequence number
+     */
+    public void markSeen(long sequence) {
+        if (sequence > highest) {
+            long shift = sequence - highest;
+            seen = shift >= SIZE ? 0 : seen << shift;
+            seen |= 1;
+            highest = sequence;
+            return;
+        }
+
+        long offset = highest - sequence;
+        if (offset < SIZE) seen |= 1L << offset;
+    }
+
+    public long getHighest() {
+        return highest;
+    }
+}
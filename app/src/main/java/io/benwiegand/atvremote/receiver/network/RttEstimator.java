@@ -0,0 +1,70 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import java.util.Locale;
+
+/**
+ * smoothed round trip time and variation, the same way TCP does it (RFC 6298)
+ */
+public class RttEstimator {
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int VARIATION_MULTIPLIER = 4;
+
+    private long samples = 0;
+    private double srtt = 0;    // ms
+    private double rttvar = 0;  // ms
+    private double lastRtt = 0; // ms
+
+    /**
+     * @param nanos a measured round trip time
+     */
+    public synchronized void sample(long nanos) {
+        double rtt = Math.max(nanos, 0) / 1000000.0;
+        if (samples == 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+        }
+        lastRtt = rtt;
+        samples++;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return smoothed rtt in milliseconds
+     */
+    public synchronized double getSmoothedRtt() {
+        return srtt;
+    }
+
+    /**
+     * @return rtt variation (jitter) in milliseconds
+     */
+    public synchronized double getRttVariation() {
+        return rttvar;
+    }
+
+    /**
+     * how long to wait for a response before giving up, based on the rtt so far
+     * @param min lower bound in milliseconds
+     * @param max upper bound in milliseconds, also used before there are any samples
+     * @return the timeout in milliseconds
+     */
+    public synchronized long getTimeout(long min, long max) {
+        if (samples == 0) return max;
+        long timeout = (long) Math.ceil(srtt + VARIATION_MULTIPLIER * rttvar);
+        return Math.max(min, Math.min(max, timeout));
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (samples == 0) return "rtt n/a";
+        return String.format(Locale.ROOT, "srtt=%.1fms rttvar=%.1fms last=%.1fms n=%d",
+                srtt, rttvar, lastRtt, samples);
+    }
+}
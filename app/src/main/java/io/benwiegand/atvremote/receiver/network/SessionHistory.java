@@ -0,0 +1,39 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * remembers the ids of recent TLS sessions, to tell when a handshake resumed one instead of making a new one.
+ * <p>
+ *     there's no api to ask the engine if it resumed, and with session tickets the resumed session isn't
+ *     even the same object, but a resumed TLS 1.2 session keeps its id. TLS 1.3 gives a resumed session a
+ *     new id, so those count as new. thread safe.
+ * </p>
+ */
+public class SessionHistory {
+    private final Map<ByteBuffer, Boolean> sessions;
+
+    /**
+     * @param size how many session ids to remember, the least recently seen are forgotten first
+     */
+    public SessionHistory(int size) {
+        sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * remembers a session a handshake finished with
+     * @param id the session id
+     * @return true if it was seen before, meaning the session was resumed
+     */
+    public synchronized boolean markSeen(byte[] id) {
+        if (id == null || id.length == 0) return false;
+        return sessions.put(ByteBuffer.wrap(id.clone()), Boolean.TRUE) != null;
+    }
+}
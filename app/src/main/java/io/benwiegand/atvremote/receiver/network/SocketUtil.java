@@ -3,14 +3,13 @@ package io.benwiegand.atvremote.receiver.network;
 import android.util.Log;
 
 import java.io.Closeable;
-import java.net.Socket;
 
 public class SocketUtil {
     private static final String TAG = SocketUtil.class.getSimpleName();
 
-    public static void tryClose(Socket socket) {
-        if (socket.isClosed()) return;
-        tryClose((Closeable) socket);
+    public static void tryClose(TLSChannel channel) {
+        if (channel.isClosed()) return;
+        tryClose((Closeable) channel);
     }
 
     public static void tryClose(TCPReader reader) {
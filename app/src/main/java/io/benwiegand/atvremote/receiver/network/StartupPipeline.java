@@ -0,0 +1,141 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.benwiegand.atvremote.receiver.stuff.Timeline;
+
+/**
+ * runs service startup as stages on a pool, so stages that don't depend on each other overlap.
+ * <p>
+ *     a stage is only submitted once all of its dependencies have finished, so no pool thread sits
+ *     waiting on another stage. it fails if any of its dependencies failed. every stage is timed relative to when the pipeline was created, which makes up the
+ *     startup timeline.
+ * </p>
+ */
+public class StartupPipeline {
+    private static final String TAG = StartupPipeline.class.getSimpleName();
+
+    public static class StartupException extends Exception {
+        public StartupException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    public class Stage<T> {
+        private final String name;
+        private final FutureTask<T> task;
+
+        // dependencies that haven't finished, plus one until the stage has been set up
+        private final AtomicInteger unfinished;
+        private List<Stage<?>> dependents = new ArrayList<>();    // null once finished, guarded by this
+
+        private Stage(String name, Callable<T> callable, Stage<?>[] dependencies) {
+            this.name = name;
+            unfinished = new AtomicInteger(dependencies.length + 1);
+            task = new FutureTask<>(() -> {
+                // they've all finished by now, this only picks up failures
+                for (Stage<?> dependency : dependencies) dependency.await();
+
+                int step = timeline.begin(name);
+                boolean failed = true;
+                try {
+                    T result = callable.call();
+                    failed = false;
+                    return result;
+                } finally {
+                    Log.d(TAG, timeline.end(step, failed) + " ms");
+                }
+            }) {
+                @Override
+                protected void done() {
+                    onFinished();
+                }
+            };
+
+            for (Stage<?> dependency : dependencies) {
+                if (!dependency.addDependent(this)) dependencyFinished();
+            }
+        }
+
+        /**
+         * @return false if this stage already finished, in which case the dependent isn't added
+         */
+        private synchronized boolean addDependent(Stage<?> dependent) {
+            if (dependents == null) return false;
+            dependents.add(dependent);
+            return true;
+        }
+
+        private void onFinished() {
+            List<Stage<?>> toStart;
+            synchronized (this) {
+                toStart = dependents;
+                dependents = null;
+            }
+            for (Stage<?> dependent : toStart) dependent.dependencyFinished();
+        }
+
+        private void dependencyFinished() {
+            if (unfinished.decrementAndGet() == 0) executor.execute(task);
+        }
+
+        /**
+         * blocks until this stage has finished
+         * @return the result of the stage
+         * @throws StartupException if this stage or one it depends on failed
+         */
+        public T await() throws StartupException, InterruptedException {
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof StartupException se) throw se;
+                throw new StartupException("startup stage failed: " + name, e.getCause());
+            }
+        }
+    }
+
+    private final Executor executor;
+    private final Timeline timeline = new Timeline();
+
+    public StartupPipeline(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * queues a stage
+     * @param name name shown in the timeline
+     * @param task the work, which can get results from its dependencies with {@link Stage#await()}
+     * @param dependencies stages which must finish first
+     * @return the stage
+     */
+    public <T> Stage<T> stage(String name, Callable<T> task, Stage<?>... dependencies) {
+        Stage<T> stage = new Stage<>(name, task, dependencies);
+        stage.dependencyFinished();    // set up, submits it if its dependencies are already done
+        return stage;
+    }
+
+    /**
+     * records a point in time on the timeline, like when something outside the pipeline happened
+     * @param name name shown in the timeline
+     */
+    public void mark(String name) {
+        Log.d(TAG, timeline.mark(name) + " ms");
+    }
+
+    public Timeline getTimeline() {
+        return timeline;
+    }
+
+    @Override
+    public String toString() {
+        return timeline.toString();
+    }
+}
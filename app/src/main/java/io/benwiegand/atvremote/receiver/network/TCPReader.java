@@ -6,101 +6,332 @@ import android.util.Log;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
-public class TCPReader implements Closeable {
+import io.benwiegand.atvremote.receiver.protocol.BinaryProtocol;
+
+/**
+ * splits the decrypted stream of a {@link TLSChannel} into lines, or length-prefixed binary frames
+ * once {@link #useBinaryFraming()} is called (see {@link BinaryProtocol}).
+ * there's no read thread, the channel's event loop feeds it.
+ * <p>
+ *     framing is done on the raw bytes: newlines are found in the receive buffer and only the
+ *     payload of each frame is decoded. a frame that fits in one receive is decoded straight out
+ *     of the channel's buffer, only frames split across receives get copied.
+ * </p>
+ * <p>
+ *     frames over the max frame size are never buffered whole. only the start of it is kept, so the
+ *     handler can still tell which event it was and reject it, and the rest is skipped.
+ * </p>
+ * <p>
+ *     during connection init, frames are queued for {@link #nextLine(long)}. once
+ *     {@link #startDispatching(FrameHandler)} is called, frames are handed to the handler on the
+ *     event loop as soon as they're framed.
+ * </p>
+ */
+public class TCPReader implements Closeable, TLSChannel.Receiver {
     private final static String TAG = TCPReader.class.getSimpleName();
-    private final static int CHAR_BUFFER_SIZE = 1024;
+    private final static int FRAME_BUFFER_SIZE = 1024;
     private static final int MAX_LINE_BUFFER = 5;
+    private static final int OVERSIZED_FRAME_HEAD_SIZE = 64;
+
+    public interface FrameHandler {
+        /**
+         * called on the event loop for each frame. this must not block.
+         * @param frame the frame, without the line ending
+         */
+        void onFrame(String frame) throws IOException;
+
+        /**
+         * called on the event loop for each binary frame. this must not block.
+         * @param frame the frame, without the length. only valid until this returns.
+         */
+        void onBinaryFrame(ByteBuffer frame) throws IOException;
+
+        /**
+         * called on the event loop for a frame that was over the max frame size, which was skipped.
+         * @param head the start of the frame
+         */
+        void onOversizedFrame(String head) throws IOException;
+
+        /**
+         * called on the event loop for a binary frame that was over the max frame size, which was skipped.
+         * @param head the start of the frame. only valid until this returns.
+         */
+        void onOversizedBinaryFrame(ByteBuffer head) throws IOException;
+
+        /**
+         * called on the event loop when the stream dies
+         * @param reason the reason
+         */
+        void onClose(IOException reason);
+    }
+
+    private final TLSChannel channel;
+    private final Charset charset;
+    private final int maxFrameSize;
+
+    // event loop only
+    private ByteBuffer frameBuffer = ByteBuffer.allocate(FRAME_BUFFER_SIZE);
+    private boolean skippingLine = false;
+    private long binaryFrameLength = -1;
+    private long binarySkipRemaining = 0;
+    private long lengthAccumulator = 0;
+    private int lengthShift = 0;
 
-    private final InputStreamReader reader;
+    private volatile boolean binary = false;
 
-    private final Thread readThread = new Thread(this::readLoop);
-    private boolean dead = false;
+    private volatile FrameHandler frameHandler = null;
+
+    private volatile boolean dead = false;
     private IOException deathException = new IOException("unknown error");
 
-    // two locks (including lineBuffer itself) because read thread needs to wait for reads for
-    // buffer limit and read calls need to wait for lineBuffer to have things
-    private final Object lineBufferPollNotificationLock = new Object();
+    // the event loop can't wait for the line buffer to drain, so it stops reading the socket instead
     private final Queue<String> lineBuffer = new ConcurrentLinkedQueue<>();
+    private boolean readPaused = false;
 
-    public TCPReader(InputStreamReader reader) {
-        this.reader = reader;
-        readThread.start();
+    /**
+     * @param maxFrameSize the largest frame accepted, in bytes (not counting the line ending or length)
+     */
+    public TCPReader(TLSChannel channel, Charset charset, int maxFrameSize) {
+        if (maxFrameSize < OVERSIZED_FRAME_HEAD_SIZE) throw new IllegalArgumentException("max frame size is too small");
+        this.channel = channel;
+        this.charset = charset;
+        this.maxFrameSize = maxFrameSize;
     }
 
     /**
-     * @return true if buffer limit reduced, false if interrupted before that happens
+     * switches to binary framing. the remote must not have sent anything past the last line yet.
      */
-    private boolean waitForLineBufferLimit() {
-        synchronized (lineBufferPollNotificationLock) {
-            try {
-                while (lineBuffer.size() >= MAX_LINE_BUFFER) lineBufferPollNotificationLock.wait();
-                return true;
-            } catch (InterruptedException e) {
-                Log.d(TAG, "interrupted");
-                return false;
+    public void useBinaryFraming() {
+        binary = true;
+    }
+
+    @Override
+    public void onReceive(ByteBuffer data) throws IOException {
+        if (binary) receiveBinary(data);
+        else receiveLines(data);
+
+        if (frameHandler != null) return;
+        synchronized (lineBuffer) {
+            if (lineBuffer.size() >= MAX_LINE_BUFFER && !readPaused) {
+                Log.w(TAG, "hit line buffer limit");
+                readPaused = true;
+                channel.setReadPaused(true);
             }
         }
     }
 
-    private void readLoop() {
-        Log.d(TAG, "starting read loop");
-        try {
-            char[] buffer = new char[CHAR_BUFFER_SIZE];
-            StringBuilder lineBuilder = new StringBuilder();
-            boolean cr = false;
+    private void receiveLines(ByteBuffer data) throws IOException {
+        assert data.hasArray();
+        byte[] array = data.array();
+        int offset = data.arrayOffset();
 
-            while (!dead) {
+        int start = data.position();
+        int limit = data.limit();
+        for (int i = start; i < limit; i++) {
+            if (array[offset + i] != '\n') continue;
 
-                if (lineBuffer.size() >= MAX_LINE_BUFFER) {
-                    Log.w(TAG, "hit line buffer limit");
-                    if (!waitForLineBufferLimit()) continue;
+            if (skippingLine || frameBuffer.position() + i - start > maxFrameSize) {
+                appendLineHead(array, offset + start, i - start);
+                emitOversizedFrame();
+                skippingLine = false;
+            } else if (frameBuffer.position() == 0) {
+                // whole frame is in this buffer
+                emitFrame(array, offset + start, i - start);
+            } else {
+                appendToFrameBuffer(array, offset + start, i - start);
+                emitFrame(frameBuffer.array(), 0, frameBuffer.position());
+                frameBuffer.clear();
+            }
+
+            start = i + 1;
+        }
+
+        // keep the partial frame for next time
+        if (skippingLine || frameBuffer.position() + limit - start > maxFrameSize) {
+            appendLineHead(array, offset + start, limit - start);
+            skippingLine = true;
+        } else {
+            appendToFrameBuffer(array, offset + start, limit - start);
+        }
+        data.position(limit);
+    }
+
+    /**
+     * keeps whatever part of the head of an oversized line isn't in the frame buffer yet
+     */
+    private void appendLineHead(byte[] array, int offset, int len) {
+        appendToFrameBuffer(array, offset, Math.max(Math.min(OVERSIZED_FRAME_HEAD_SIZE - frameBuffer.position(), len), 0));
+    }
+
+    private void emitOversizedFrame() throws IOException {
+        if (frameHandler == null) throw new IOException("frame is too large");
+        String head = new String(frameBuffer.array(), 0, frameBuffer.position(), charset);
+        frameBuffer.clear();
+        Log.w(TAG, "skipped oversized frame");
+        frameHandler.onOversizedFrame(head);
+    }
+
+    private void receiveBinary(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (binaryFrameLength < 0) {
+                byte b = data.get();
+                lengthAccumulator |= (long) (b & 0x7F) << lengthShift;
+                lengthShift += 7;
+                if ((b & 0x80) != 0) {
+                    if (lengthShift >= 35) throw new IOException("binary frame length is too long");
+                    continue;
                 }
 
-                int len = reader.read(buffer);
-                int offset = 0;
-                for (int i = 0; i < len; i++) {
-                    if (buffer[i] == '\n') {
-                        lineBuilder.append(buffer, offset, i - offset);
-                        String line = cr ?  // remove cr for crlf compatibility
-                                lineBuilder.substring(0, lineBuilder.length() - 1) :
-                                lineBuilder.toString();
-                        lineBuilder = new StringBuilder();
-
-                        synchronized (lineBuffer) {
-                            lineBuffer.add(line);
-                            lineBuffer.notify();
-                        }
-
-                        offset = i + 1;
-                        cr = false;
-
-                    } else cr = buffer[i] == '\r';
+                binaryFrameLength = lengthAccumulator;
+                lengthAccumulator = 0;
+                lengthShift = 0;
+                if (binaryFrameLength > maxFrameSize) binarySkipRemaining = binaryFrameLength;
+
+                if (binaryFrameLength == 0) {
+                    // complete already, don't leave it waiting for the next receive
+                    ByteBuffer frame = data.slice();
+                    frame.limit(0);
+                    binaryFrameLength = -1;
+                    emitBinaryFrame(frame);
+                    continue;
                 }
+            }
+
+            if (binarySkipRemaining > 0) {
+                skipBinary(data);
+                continue;
+            }
 
-                if (len == -1) throw new IOException("EOS (got -1)");
-                lineBuilder.append(buffer, offset, len - offset);
+            int needed = (int) binaryFrameLength - frameBuffer.position();
+            if (frameBuffer.position() == 0 && data.remaining() >= needed) {
+                // whole frame is in this buffer
+                ByteBuffer frame = data.slice();
+                frame.limit(needed);
+                data.position(data.position() + needed);
+                binaryFrameLength = -1;
+                emitBinaryFrame(frame);
+                continue;
             }
 
-            deathException = new IOException("stream closed");
-
-        } catch (IOException e) {
-            Log.w(TAG, "read thread encountered IOException", e);
-            deathException = e;
-        } catch (RuntimeException e) {
-            Log.e(TAG, "read thread encountered unexpected exception", e);
-            deathException = new IOException("read thread encountered unexpected exception and will terminate", e);
-        } finally {
-            Log.d(TAG, "read thread terminating. dead = " + dead);
-            tryClose(this);
+            int len = Math.min(needed, data.remaining());
+            appendToFrameBuffer(data.array(), data.arrayOffset() + data.position(), len);
+            data.position(data.position() + len);
+            if (frameBuffer.position() < binaryFrameLength) continue;
+
+            frameBuffer.flip();
+            binaryFrameLength = -1;
+            emitBinaryFrame(frameBuffer);
+            frameBuffer.clear();
         }
     }
 
+    private void skipBinary(ByteBuffer data) throws IOException {
+        // keep the head, so the handler can tell which event it was
+        if (binaryFrameLength - binarySkipRemaining < OVERSIZED_FRAME_HEAD_SIZE) {
+            int len = (int) Math.min(OVERSIZED_FRAME_HEAD_SIZE - frameBuffer.position(), data.remaining());
+            appendToFrameBuffer(data.array(), data.arrayOffset() + data.position(), len);
+            data.position(data.position() + len);
+            binarySkipRemaining -= len;
+            if (frameBuffer.position() < OVERSIZED_FRAME_HEAD_SIZE) return;
+
+            if (frameHandler == null) throw new IOException("binary frame is too large: " + binaryFrameLength + " bytes");
+            Log.w(TAG, "skipping oversized binary frame: " + binaryFrameLength + " bytes");
+            frameBuffer.flip();
+            frameHandler.onOversizedBinaryFrame(frameBuffer);
+            frameBuffer.clear();
+        }
+
+        int len = (int) Math.min(binarySkipRemaining, data.remaining());
+        data.position(data.position() + len);
+        binarySkipRemaining -= len;
+        if (binarySkipRemaining == 0) binaryFrameLength = -1;
+    }
+
+    private void emitBinaryFrame(ByteBuffer frame) throws IOException {
+        if (frameHandler != null) {
+            frameHandler.onBinaryFrame(frame);
+            return;
+        }
+
+        // before dispatching, only lines are expected
+        if (!frame.hasRemaining()) return;
+        if (frame.get() != BinaryProtocol.FRAME_LINE)
+            throw new IOException("unexpected binary frame during connection init");
+        emitFrame(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    private void appendToFrameBuffer(byte[] array, int offset, int len) {
+        if (len == 0) return;
+        if (frameBuffer.remaining() < len) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(frameBuffer.capacity() * 2, frameBuffer.position() + len));
+            frameBuffer.flip();
+            newBuffer.put(frameBuffer);
+            frameBuffer = newBuffer;
+        }
+        frameBuffer.put(array, offset, len);
+    }
+
+    private void emitFrame(byte[] array, int offset, int len) throws IOException {
+        // remove cr for crlf compatibility
+        if (len > 0 && array[offset + len - 1] == '\r') len--;
+        String frame = new String(array, offset, len, charset);
+
+        if (frameHandler != null) {
+            if (NetworkDebugConstants.NETWORK_DEBUG_LOGS) Log.d(TAG, "RX: " + frame);
+            frameHandler.onFrame(frame);
+            return;
+        }
+
+        synchronized (lineBuffer) {
+            lineBuffer.add(frame);
+            lineBuffer.notify();
+        }
+    }
+
+    /**
+     * switches from queueing frames for {@link #nextLine(long)} to handing them directly to a
+     * handler on the event loop. any frames that are still queued are handed over first.
+     * @param handler the frame handler
+     */
+    public void startDispatching(FrameHandler handler) {
+        channel.execute(() -> {
+            if (frameHandler != null) throw new IllegalStateException("already dispatching");
+
+            try {
+                String frame;
+                while ((frame = lineBuffer.poll()) != null) handler.onFrame(frame);
+            } catch (Throwable t) {
+                Log.e(TAG, "error while handling queued frames", t);
+                deathException = t instanceof IOException e ? e : new IOException("frame handler failed", t);
+                frameHandler = handler;
+                close();
+                return;
+            }
+
+            frameHandler = handler;
+            synchronized (lineBuffer) {
+                if (readPaused) {
+                    readPaused = false;
+                    channel.setReadPaused(false);
+                }
+            }
+
+            if (dead) handler.onClose(deathException);
+        });
+    }
+
+    @Override
+    public void onClose(IOException reason) {
+        Log.d(TAG, "channel closed: " + reason.getMessage());
+        deathException = reason;
+        close();
+    }
+
     public String nextLine(long timeout) throws IOException, InterruptedException {
         synchronized (lineBuffer) {
             if (dead) throw new IOException(deathException);
@@ -116,8 +347,9 @@ public class TCPReader implements Closeable {
                 return null;
             }
 
-            synchronized (lineBufferPollNotificationLock) {
-                lineBufferPollNotificationLock.notifyAll();
+            if (readPaused && lineBuffer.size() < MAX_LINE_BUFFER) {
+                readPaused = false;
+                channel.setReadPaused(false);
             }
 
             if (NetworkDebugConstants.NETWORK_DEBUG_LOGS) Log.d(TAG, "RX: " + line);
@@ -131,26 +363,24 @@ public class TCPReader implements Closeable {
 
     @Override
     public void close() {
+        if (dead) return;
         dead = true;
 
-        // close reader if not already
-        tryClose(reader);
-
-        // stop the read thread
-        try {
-            readThread.interrupt();
-        } catch (SecurityException e) {
-            Log.wtf(TAG, "failed to interrupt read thread due to security exception", e);
-        }
+        // close channel if not already
+        tryClose(channel);
 
         // free up threads blocking for next line
         synchronized (lineBuffer) {
             lineBuffer.notifyAll();
         }
+
+        if (frameHandler != null) channel.execute(() -> frameHandler.onClose(deathException));
     }
 
-    public static TCPReader createFromStream(InputStream is, Charset cs) {
-        return new TCPReader(new InputStreamReader(is, cs));
+    public static TCPReader createFromChannel(TLSChannel channel, Charset cs, int maxFrameSize) {
+        TCPReader reader = new TCPReader(channel, cs, maxFrameSize);
+        channel.start(reader);
+        return reader;
     }
 
 }
@@ -1,37 +1,226 @@
 package io.benwiegand.atvremote.receiver.network;
 
+import static io.benwiegand.atvremote.receiver.protocol.BinaryProtocol.FRAME_LINE;
+import static io.benwiegand.atvremote.receiver.protocol.BinaryProtocol.FRAME_OPERATION;
+import static io.benwiegand.atvremote.receiver.protocol.BinaryProtocol.FRAME_RESPONSE;
 import static io.benwiegand.atvremote.receiver.protocol.ProtocolConstants.NEWLINE;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
+import io.benwiegand.atvremote.receiver.protocol.BinaryProtocol;
+
+/**
+ * encodes lines (or binary frames, see {@link BinaryProtocol}) into a batch which goes to the
+ * {@link TLSChannel} as one write on {@link #flush()}.
+ * one flush normally turns into one TLS record and one socket write.
+ */
 public class TCPWriter implements Closeable {
     private static final String TAG = TCPWriter.class.getSimpleName();
+    private static final int INITIAL_BATCH_BUFFER_SIZE = 1024;
+    private static final int INITIAL_FRAME_BUFFER_SIZE = 256;
+
+    private final TLSChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer newline = CharBuffer.wrap(NEWLINE);
+
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(INITIAL_BATCH_BUFFER_SIZE);
+    private int batchFrames = 0;
 
-    private final OutputStreamWriter writer;
+    // binary frames are built here first, since the length goes in front
+    private ByteBuffer frameBuffer = null;
+    private volatile boolean binary = false;
+    private volatile long lastSent = SystemClock.elapsedRealtime();
+
+    public TCPWriter(TLSChannel channel, Charset charset) {
+        this.channel = channel;
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * switches to binary frames for everything written after this
+     */
+    public synchronized void useBinaryFraming() {
+        frameBuffer = ByteBuffer.allocate(INITIAL_FRAME_BUFFER_SIZE);
+        binary = true;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
 
-    public TCPWriter(OutputStreamWriter writer) {
-        this.writer = writer;
+    /**
+     * @return {@link SystemClock#elapsedRealtime()} when something was last flushed to the channel
+     */
+    public long getLastSent() {
+        return lastSent;
     }
 
-    public void sendLine(String line) throws IOException {
+    /**
+     * adds a line to the current batch without sending it
+     * @param line the line
+     */
+    public synchronized void queueLine(String line) throws CharacterCodingException {
         if (NetworkDebugConstants.NETWORK_DEBUG_LOGS) Log.d(TAG, "TX: " + line);
-        writer.write(line + NEWLINE);
-        writer.flush();
+        if (binary) {
+            beginFrame(FRAME_LINE);
+            frameBuffer = encode(CharBuffer.wrap(line), frameBuffer);
+            endFrame();
+            return;
+        }
+
+        batchBuffer = encode(CharBuffer.wrap(line), batchBuffer);
+        newline.rewind();
+        batchBuffer = encode(newline, batchBuffer);
+        batchFrames++;
+    }
+
+    /**
+     * adds an outgoing event to the current batch
+     * @param eventId the event id
+     * @param event the operation, optionally followed by a space and the extra
+     */
+    public synchronized void queueEvent(String eventId, String event) throws CharacterCodingException {
+        long binaryEventId = binary ? parseBinaryEventId(eventId) : -1;
+        int iExtra = event.indexOf(' ');
+        int opcode = binaryEventId < 0 ? -1 : BinaryProtocol.opcodeOf(iExtra < 0 ? event : event.substring(0, iExtra));
+        if (opcode < 0) {
+            // no binary form, it can still go as a line
+            queueLine(eventId + " " + event);
+            return;
+        }
+
+        if (NetworkDebugConstants.NETWORK_DEBUG_LOGS) Log.d(TAG, "TX: " + eventId + " " + event);
+        beginFrame(FRAME_OPERATION);
+        ensureFrameCapacity(20);
+        BinaryProtocol.writeVarint(frameBuffer, binaryEventId);
+        BinaryProtocol.writeVarint(frameBuffer, opcode);
+        if (iExtra >= 0) frameBuffer = encode(CharBuffer.wrap(event, iExtra + 1, event.length()), frameBuffer);
+        endFrame();
+    }
+
+    /**
+     * adds a response to the current batch
+     * @param eventId the id of the event being responded to
+     * @param binaryFramed true if the event came as a binary operation frame, false if it came as a line
+     * @param status the response status
+     * @param extra the response extra, or null
+     */
+    public synchronized void queueResponse(String eventId, boolean binaryFramed, String status, String extra) throws CharacterCodingException {
+        if (!binaryFramed) {
+            // events that came in as lines get their response as a line
+            queueLine("!" + eventId + " " + status + (extra == null ? "" : " " + extra));
+            return;
+        }
+        long binaryEventId = Long.parseLong(eventId);
+
+        if (NetworkDebugConstants.NETWORK_DEBUG_LOGS) Log.d(TAG, "TX: !" + eventId + " " + status + " " + extra);
+        beginFrame(FRAME_RESPONSE);
+        ensureFrameCapacity(11);
+        BinaryProtocol.writeVarint(frameBuffer, binaryEventId);
+        frameBuffer.put(BinaryProtocol.statusOf(status));
+        if (extra != null) frameBuffer = encode(CharBuffer.wrap(extra), frameBuffer);
+        endFrame();
+    }
+
+    /**
+     * @param eventId the event id
+     * @return the event id as a varint value, or -1 if it isn't a plain decimal number
+     */
+    private static long parseBinaryEventId(String eventId) {
+        if (eventId.isEmpty() || eventId.length() > 18) return -1;
+        long value = 0;
+        for (int i = 0; i < eventId.length(); i++) {
+            char c = eventId.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private void beginFrame(byte kind) {
+        frameBuffer.clear();
+        frameBuffer.put(kind);
+    }
+
+    private void endFrame() {
+        int length = frameBuffer.position();
+        ensureBatchCapacity(BinaryProtocol.varintSize(length) + length);
+        BinaryProtocol.writeVarint(batchBuffer, length);
+        frameBuffer.flip();
+        batchBuffer.put(frameBuffer);
+        batchFrames++;
+    }
+
+    private ByteBuffer encode(CharBuffer chars, ByteBuffer target) throws CharacterCodingException {
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, target, true);
+            if (result.isUnderflow()) break;
+            if (result.isOverflow()) target = grow(target, target.capacity());
+            else result.throwException();
+        }
+        return target;
+    }
+
+    private void ensureFrameCapacity(int bytes) {
+        if (frameBuffer.remaining() < bytes) frameBuffer = grow(frameBuffer, bytes);
+    }
+
+    private void ensureBatchCapacity(int bytes) {
+        if (batchBuffer.remaining() < bytes) batchBuffer = grow(batchBuffer, bytes);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minGrowth) {
+        ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() + Math.max(buffer.capacity(), minGrowth));
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    /**
+     * sends everything in the current batch
+     */
+    public synchronized void flush() throws IOException {
+        if (batchBuffer.position() == 0) return;
+
+        batchBuffer.flip();
+        channel.getWireStats().recordFlush(batchFrames, batchBuffer.remaining());
+        batchFrames = 0;
+
+        // the channel copies it, so the batch buffer can be reused right away
+        try {
+            channel.write(batchBuffer);
+        } finally {
+            batchBuffer.clear();
+        }
+        lastSent = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized void sendLine(String line) throws IOException {
+        queueLine(line);
+        flush();
     }
 
     @Override
     public void close() throws IOException {
-        writer.close();
+        channel.close();
     }
 
-    public static TCPWriter createFromStream(OutputStream os, Charset cs) {
-        return new TCPWriter(new OutputStreamWriter(os, cs));
+    public static TCPWriter createFromChannel(TLSChannel channel, Charset cs) {
+        return new TCPWriter(channel, cs);
     }
 
 }
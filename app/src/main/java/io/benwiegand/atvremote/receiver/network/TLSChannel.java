@@ -0,0 +1,533 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static io.benwiegand.atvremote.receiver.network.SocketUtil.tryClose;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * a TLS stream over a non-blocking socket channel, driven by a {@link NetworkEventLoop}.
+ * <p>
+ *     engine and network buffer state is only touched on the loop thread. other threads can
+ *     write, pause reading, and close, which are all handed over to the loop. once the loop is dead,
+ *     closing leaves that state alone.
+ * </p>
+ */
+public class TLSChannel implements Closeable, NetworkEventLoop.SelectionHandler {
+    private static final String TAG = TLSChannel.class.getSimpleName();
+
+    // writers block when this much plaintext is waiting to be encrypted
+    private static final int MAX_PENDING_OUTPUT = 64 * 1024;
+    private static final long WRITE_STALL_TIMEOUT = 10000;   // the peer isn't reading, give up on it
+    private static final int INITIAL_OUTPUT_BUFFER_SIZE = 4096;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final SessionHistory sessionHistory = new SessionHistory(256);
+
+    public interface Receiver {
+        /**
+         * called on the loop thread with decrypted bytes. the buffer is reused, so any bytes
+         * which aren't consumed before returning are lost.
+         * @param data the decrypted bytes
+         */
+        void onReceive(ByteBuffer data) throws IOException;
+
+        /**
+         * called once when the channel closes for any reason
+         * @param reason the reason
+         */
+        void onClose(IOException reason);
+    }
+
+    /**
+     * @param resumed whether an earlier session was resumed instead of doing a full handshake, as far as
+     *                {@link SessionHistory} can tell
+     * @param duration time from starting the handshake until it finished, in milliseconds
+     */
+    public record HandshakeInfo(boolean resumed, long duration, String protocol, String cipherSuite) {
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %s handshake in %d ms (%s)",
+                    resumed ? "resumed" : "full", protocol, duration, cipherSuite);
+        }
+    }
+
+    private final NetworkEventLoop loop;
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private SelectionKey key = null;
+    private Receiver receiver = null;
+
+    // loop thread only
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private boolean runningTasks = false;
+    private boolean readPaused = false;
+
+    // outgoing plaintext. writers copy into outFill, the loop swaps it for outDrain once that's encrypted.
+    private final Object outputLock = new Object();
+    private ByteBuffer outFill = ByteBuffer.allocate(INITIAL_OUTPUT_BUFFER_SIZE);  // outputLock
+    private ByteBuffer outDrain = ByteBuffer.allocate(INITIAL_OUTPUT_BUFFER_SIZE); // loop thread only
+    private int pendingOutput = 0;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final WireStats wireStats = new WireStats();
+
+    private final CountDownLatch handshakeLatch = new CountDownLatch(1);
+    private volatile boolean handshakeComplete = false;
+    private long handshakeStartTime = 0;
+    private volatile HandshakeInfo handshakeInfo = null;
+    private final AtomicBoolean closing = new AtomicBoolean(false);   // only one way of closing runs
+    private volatile boolean closed = false;
+    private volatile boolean closeRequested = false;
+    private IOException closeReason = null;
+
+    public TLSChannel(NetworkEventLoop loop, SocketChannel channel, SSLEngine engine) {
+        this.loop = loop;
+        this.channel = channel;
+        this.engine = engine;
+
+        SSLSession session = engine.getSession();
+        netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        outDrain.flip();
+    }
+
+    /**
+     * sets the receiver and starts the handshake on the event loop.
+     * @param receiver where decrypted data goes
+     */
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        loop.execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+                handshakeStartTime = SystemClock.elapsedRealtime();
+                engine.beginHandshake();
+                process();
+            } catch (Throwable t) {
+                closeOnLoop(asIOException(t));
+            }
+        });
+    }
+
+    public <T> void setOption(SocketOption<T> option, T value) throws IOException {
+        channel.setOption(option, value);
+    }
+
+    public InetAddress getInetAddress() {
+        return channel.socket().getInetAddress();
+    }
+
+    public SocketAddress getRemoteSocketAddress() {
+        return channel.socket().getRemoteSocketAddress();
+    }
+
+    public WireStats getWireStats() {
+        return wireStats;
+    }
+
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    /**
+     * @return how the TLS handshake went, or null if it hasn't finished
+     */
+    public HandshakeInfo getHandshakeInfo() {
+        return handshakeInfo;
+    }
+
+    /**
+     * runs a task on this channel's event loop
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        loop.execute(task);
+    }
+
+    public boolean isClosed() {
+        return closed || closeRequested;
+    }
+
+    /**
+     * blocks until the TLS handshake completes
+     * @param timeout max time to wait in milliseconds
+     * @throws IOException if the channel closes or the handshake doesn't finish in time
+     */
+    public void awaitHandshake(long timeout) throws IOException, InterruptedException {
+        if (!handshakeLatch.await(timeout, TimeUnit.MILLISECONDS))
+            throw new IOException("TLS handshake timed out");
+        if (!handshakeComplete) throw new IOException("channel closed during TLS handshake", closeReason);
+    }
+
+    /**
+     * queues plaintext to be encrypted and sent. blocks if too much is already waiting.
+     * if nothing drains for too long the channel is closed, since the peer isn't reading.
+     * @param data the plaintext. it's copied before this returns, so the caller can reuse the buffer.
+     */
+    public void write(ByteBuffer data) throws IOException {
+        if (loop.inLoop()) throw new IllegalStateException("write() would block the event loop");
+
+        synchronized (outputLock) {
+            try {
+                long deadline = SystemClock.elapsedRealtime() + WRITE_STALL_TIMEOUT;
+                while (!closed && pendingOutput >= MAX_PENDING_OUTPUT) {
+                    long wait = deadline - SystemClock.elapsedRealtime();
+                    if (wait <= 0) {
+                        IOException e = new IOException("output hasn't drained in " + WRITE_STALL_TIMEOUT + " ms");
+                        close(e);
+                        throw e;
+                    }
+                    int pending = pendingOutput;
+                    outputLock.wait(wait);
+                    if (pendingOutput < pending) deadline = SystemClock.elapsedRealtime() + WRITE_STALL_TIMEOUT;
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted while waiting for output to drain", e);
+            }
+            if (closed) throw new IOException("channel closed", closeReason);
+
+            pendingOutput += data.remaining();
+            if (outFill.remaining() < data.remaining())
+                outFill = enlarge(outFill, outFill.position() + data.remaining());
+            outFill.put(data);
+        }
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                processSafely();
+            });
+        }
+    }
+
+    /**
+     * stops or resumes reading from the socket, for when the receiver can't keep up.
+     * @param paused true to stop reading
+     */
+    public void setReadPaused(boolean paused) {
+        loop.execute(() -> {
+            if (readPaused == paused) return;
+            readPaused = paused;
+            if (paused) updateInterestOps();
+            else processSafely();   // there may already be buffered records
+        });
+    }
+
+    @Override
+    public void onSelected(SelectionKey key) {
+        try {
+            boolean eos = key.isReadable() && !readNet();
+            if (key.isValid() && key.isWritable()) flushNet();
+            process();  // deliver whatever arrived before the end of the stream
+
+            if (eos) throw new EOFException("EOS (got -1)");
+        } catch (Throwable t) {
+            closeOnLoop(asIOException(t));
+        }
+    }
+
+    @Override
+    public void onLoopClosed() {
+        closeWithoutLoop(new IOException("event loop is dead"));
+    }
+
+    private void processSafely() {
+        try {
+            process();
+        } catch (Throwable t) {
+            closeOnLoop(asIOException(t));
+        }
+    }
+
+    private void process() throws IOException {
+        if (key == null) return;
+
+        boolean progress = true;
+        while (progress && !closed && !runningTasks) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+                return;
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                progress = wrap(EMPTY);
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                progress = unwrap();
+            } else {
+                onHandshakeFinished();
+                progress = false;
+                if (!readPaused) progress = unwrap();
+                progress |= wrapQueuedOutput();
+            }
+        }
+
+        if (!closed) updateInterestOps();
+    }
+
+    private void onHandshakeFinished() {
+        if (handshakeComplete) return;
+
+        SSLSession session = engine.getSession();
+        boolean resumed = sessionHistory.markSeen(session.getId());
+        handshakeInfo = new HandshakeInfo(resumed, SystemClock.elapsedRealtime() - handshakeStartTime,
+                session.getProtocol(), session.getCipherSuite());
+
+        handshakeComplete = true;
+        handshakeLatch.countDown();
+    }
+
+    private void runDelegatedTasks() {
+        List<Runnable> tasks = new LinkedList<>();
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) tasks.add(task);
+
+        runningTasks = true;
+        loop.executeBlocking(() -> {
+            try {
+                for (Runnable t : tasks) t.run();
+            } finally {
+                loop.execute(() -> {
+                    runningTasks = false;
+                    processSafely();
+                });
+            }
+        });
+    }
+
+    /**
+     * @return false if the end of the stream was reached
+     */
+    private boolean readNet() throws IOException {
+        return channel.read(netIn) >= 0;
+    }
+
+    /**
+     * @return true if all encrypted output was written to the socket
+     */
+    private boolean flushNet() throws IOException {
+        if (netOut.position() == 0) return true;
+        netOut.flip();
+        if (channel.write(netOut) > 0) wireStats.recordSocketWrite();
+        netOut.compact();
+        return netOut.position() == 0;
+    }
+
+    /**
+     * @return true if progress was made
+     */
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+
+        switch (result.getStatus()) {
+            case OK -> {
+                deliverAppData();
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+            case BUFFER_UNDERFLOW -> {
+                // need more bytes from the socket
+                int packetSize = engine.getSession().getPacketBufferSize();
+                if (netIn.capacity() < packetSize) netIn = enlarge(netIn, packetSize);
+                return false;
+            }
+            case BUFFER_OVERFLOW -> {
+                deliverAppData();
+                int appSize = engine.getSession().getApplicationBufferSize();
+                if (appIn.capacity() < appSize) appIn = enlarge(appIn, appSize);
+                return true;
+            }
+            case CLOSED -> {
+                try {
+                    engine.closeInbound();
+                } catch (SSLException e) {
+                    Log.d(TAG, "failed to close inbound", e);
+                }
+                throw new EOFException("remote closed TLS session");
+            }
+        }
+        return false;
+    }
+
+    private void deliverAppData() throws IOException {
+        if (appIn.position() == 0) return;
+        appIn.flip();
+        try {
+            receiver.onReceive(appIn);
+        } finally {
+            appIn.clear();
+        }
+    }
+
+    /**
+     * @return true if progress was made
+     */
+    private boolean wrap(ByteBuffer src) throws IOException {
+        if (!flushNet()) return false;  // wait for the socket before making more
+
+        SSLEngineResult result = engine.wrap(src, netOut);
+        switch (result.getStatus()) {
+            case OK -> {
+                flushNet();
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+            case BUFFER_OVERFLOW -> {
+                netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                return true;
+            }
+            case CLOSED -> throw new EOFException("TLS session closed");
+        }
+        return false;
+    }
+
+    private boolean wrapQueuedOutput() throws IOException {
+        boolean progress = false;
+        while (outDrain.hasRemaining() || swapOutputBuffers()) {
+            int before = outDrain.remaining();
+            if (!wrap(outDrain) && outDrain.remaining() == before) break;
+            progress = true;
+
+            int consumed = before - outDrain.remaining();
+            if (consumed > 0) {
+                wireStats.recordTLSRecord();
+                releaseOutput(consumed);
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * takes what was written since the last swap, once the previous batch is encrypted
+     * @return false if nothing was written
+     */
+    private boolean swapOutputBuffers() {
+        synchronized (outputLock) {
+            if (outFill.position() == 0) return false;
+            ByteBuffer drained = outDrain;
+            outDrain = outFill;
+            outDrain.flip();
+            outFill = drained;
+            outFill.clear();
+            return true;
+        }
+    }
+
+    private void releaseOutput(int bytes) {
+        synchronized (outputLock) {
+            pendingOutput -= bytes;
+            outputLock.notifyAll();
+        }
+    }
+
+    private void updateInterestOps() {
+        if (key == null || !key.isValid()) return;
+        int ops = 0;
+        if (!readPaused || !handshakeComplete) ops |= SelectionKey.OP_READ;
+        if (netOut.position() > 0) ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    private static IOException asIOException(Throwable t) {
+        if (t instanceof IOException e) return e;
+        return new IOException("unexpected error in TLS channel", t);
+    }
+
+    private void closeOnLoop(IOException reason) {
+        if (!closing.compareAndSet(false, true)) return;
+        Log.d(TAG, "closing channel: " + reason.getMessage());
+        markClosed(reason);
+
+        // best effort close_notify
+        try {
+            engine.closeOutbound();
+            if (handshakeComplete && flushNet()) {
+                engine.wrap(EMPTY, netOut);
+                flushNet();
+            }
+        } catch (Throwable t) {
+            Log.d(TAG, "failed to send close_notify", t);
+        }
+
+        if (key != null) key.cancel();
+        tryClose(channel);
+
+        if (receiver != null) receiver.onClose(reason);
+    }
+
+    /**
+     * closes from any thread once the loop is gone, without the engine or anything else owned by the loop.
+     * so there's no close_notify.
+     */
+    private void closeWithoutLoop(IOException reason) {
+        if (!closing.compareAndSet(false, true)) return;
+        Log.d(TAG, "closing channel without the event loop: " + reason.getMessage());
+        markClosed(reason);
+
+        tryClose(channel);  // this cancels the key too
+
+        if (receiver != null) receiver.onClose(reason);
+    }
+
+    private void markClosed(IOException reason) {
+        synchronized (outputLock) {
+            closed = true;
+            closeReason = reason;
+            outFill.clear();
+            outputLock.notifyAll();
+        }
+        handshakeLatch.countDown();
+    }
+
+    @Override
+    public void close() {
+        close(new IOException("channel closed"));
+    }
+
+    private void close(IOException reason) {
+        if (closed) return;
+        closeRequested = true;
+        if (loop.inLoop()) {
+            closeOnLoop(reason);
+            return;
+        }
+
+        loop.execute(() -> closeOnLoop(reason));
+        // a loop that's dead (or dying) might never run that. whichever gets there first closes it.
+        if (loop.isDead()) closeWithoutLoop(reason);
+    }
+}
@@ -2,62 +2,83 @@ package io.benwiegand.atvremote.receiver.network;
 
 import static io.benwiegand.atvremote.receiver.control.IntentConstants.LINEAGE_SYSTEM_OPTIONS_ACTIVITY;
 import static io.benwiegand.atvremote.receiver.network.SocketUtil.tryClose;
+import static io.benwiegand.atvremote.receiver.protocol.BinaryProtocol.FEATURE_BINARY_FRAMES;
 import static io.benwiegand.atvremote.receiver.protocol.ProtocolConstants.*;
 import static io.benwiegand.atvremote.receiver.protocol.json.ReceiverCapabilities.EXTRA_BUTTON_GTV_DASHBOARD;
 import static io.benwiegand.atvremote.receiver.protocol.json.ReceiverCapabilities.EXTRA_BUTTON_LINEAGE_SYSTEM_OPTIONS;
 
 import android.content.Context;
+import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.StringRes;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.text.MessageFormat;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Consumer;
 
-import javax.net.ssl.SSLSocket;
-
 import io.benwiegand.atvremote.receiver.R;
 import io.benwiegand.atvremote.receiver.async.Sec;
 import io.benwiegand.atvremote.receiver.control.ControlScheme;
 import io.benwiegand.atvremote.receiver.control.ControlNotInitializedException;
+import io.benwiegand.atvremote.receiver.network.event.InputAdmission;
+import io.benwiegand.atvremote.receiver.network.event.OutputScheduler;
+import io.benwiegand.atvremote.receiver.protocol.BinaryProtocol;
 import io.benwiegand.atvremote.receiver.protocol.KeyEventType;
 import io.benwiegand.atvremote.receiver.protocol.MalformedEventException;
 import io.benwiegand.atvremote.receiver.protocol.OperationDefinition;
 import io.benwiegand.atvremote.receiver.protocol.PairingData;
 import io.benwiegand.atvremote.receiver.protocol.PairingManager;
 import io.benwiegand.atvremote.receiver.protocol.RemoteProtocolException;
+import io.benwiegand.atvremote.receiver.protocol.json.CommitTextChunkParams;
 import io.benwiegand.atvremote.receiver.protocol.json.CommitTextParams;
+import io.benwiegand.atvremote.receiver.protocol.json.DatagramOpenResponse;
 import io.benwiegand.atvremote.receiver.protocol.json.DeleteTextParams;
 import io.benwiegand.atvremote.receiver.protocol.json.ErrorDetails;
+import io.benwiegand.atvremote.receiver.protocol.json.HelloParams;
+import io.benwiegand.atvremote.receiver.protocol.json.HelloResponse;
 import io.benwiegand.atvremote.receiver.protocol.json.KeyEventParams;
 import io.benwiegand.atvremote.receiver.protocol.json.ReceiverDeviceMeta;
 import io.benwiegand.atvremote.receiver.protocol.json.RemoteDeviceMeta;
 import io.benwiegand.atvremote.receiver.protocol.stream.EventStreamManager;
 import io.benwiegand.atvremote.receiver.stuff.ThrowingConsumer;
+import io.benwiegand.atvremote.receiver.stuff.Timeline;
 
 public class TVRemoteConnection implements Closeable {
     private static final String TAG = TVRemoteConnection.class.getSimpleName();
     private static final Gson gson = new Gson();
 
     private static final int SOCKET_AUTH_TIMEOUT = 3000;
+    private static final int TLS_HANDSHAKE_TIMEOUT = 10000;
     private static final int PAIRING_TIME_LIMIT = 360000; // 5 mins //todo
     private static final long KEEPALIVE_INTERVAL = 5000;
-    private static final long KEEPALIVE_TIMEOUT = KEEPALIVE_INTERVAL * 2;
+    private static final long KEEPALIVE_TIMEOUT = KEEPALIVE_INTERVAL * 2;  // upper bound, the real one follows the rtt
+    private static final long OUTPUT_BATCH_LATENCY_CAP = 2;
+    private static final long INPUT_MAX_AGE = 500;  // input older than this is dropped instead of replayed late
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private static final RemoteProtocolException OP_UNSUPPORTED_BY_REMOTE = RemoteProtocolException.signal(R.string.protocol_error_op_unsupported, "operation not supported by remote");
 
     private final Context context;
 
     private final UUID uuid;
 
-    private final SSLSocket socket;
+    private final TLSChannel channel;
     private TCPReader reader = null;
     private TCPWriter writer = null;
     private EventJuggler eventJuggler = null;
@@ -70,52 +91,141 @@ public class TVRemoteConnection implements Closeable {
     private final Set<String> subscribedEventTypes = new HashSet<>();
 
     private final ControlScheme controlScheme;
+    private String textChunkCarry = null;   // background lane only
+
+    private final DatagramSideChannel datagramSideChannel;
+    private DatagramSideChannel.Session datagramSession = null;
+    private boolean unackedOperations = false;
+    private final Timeline setupTimeline = new Timeline();
 
     private final Object deathLock = new Object();
     private final Runnable onDisconnect;
     private boolean dead = false;
 
-    public TVRemoteConnection(Context context, UUID uuid, PairingManager pairingManager, EventStreamManager eventStreamManager, SSLSocket socket, ControlScheme controlScheme, Runnable onDisconnect) {
+    public TVRemoteConnection(Context context, UUID uuid, PairingManager pairingManager, EventStreamManager eventStreamManager, TLSChannel channel, ControlScheme controlScheme, DatagramSideChannel datagramSideChannel, Runnable onDisconnect) {
         this.context = context;
         this.uuid = uuid;
         this.pairingManager = pairingManager;
         this.eventStreamManager = eventStreamManager;
-        this.socket = socket;
+        this.channel = channel;
         this.controlScheme = controlScheme;
+        this.datagramSideChannel = datagramSideChannel;
         this.onDisconnect = onDisconnect;
-        init();
     }
 
     public InetAddress getRemoteAddress() {
-        return socket.getInetAddress();
+        return channel.getInetAddress();
     }
 
     public boolean isDead() {
         return dead;
     }
 
-    private void init() {
+    public WireStats getWireStats() {
+        return channel.getWireStats();
+    }
+
+    /**
+     * @return the steps of connection setup, relative to when the connection was created
+     */
+    public Timeline getSetupTimeline() {
+        return setupTimeline;
+    }
+
+    /**
+     * @return how the TLS handshake went, or null if it hasn't finished
+     */
+    public TLSChannel.HandshakeInfo getHandshakeInfo() {
+        return channel.getHandshakeInfo();
+    }
+
+    /**
+     * @return round trip stats from pings and event responses, or null before the connection is set up
+     */
+    public RttEstimator getRtt() {
+        if (eventJuggler == null) return null;
+        return eventJuggler.getRtt();
+    }
+
+    /**
+     * @return the outbound queue, or null before the connection is set up
+     */
+    public OutputScheduler getOutputQueue() {
+        if (eventJuggler == null) return null;
+        return eventJuggler.getOutputQueue();
+    }
+
+    public int getOperationBacklog() {
+        if (eventJuggler == null) return 0;
+        return eventJuggler.getOperationBacklog();
+    }
+
+    public String getLaneLatencySummary() {
+        if (eventJuggler == null) return "n/a";
+        return "input " + eventJuggler.getInputLaneLatency() + ", background " + eventJuggler.getBackgroundLaneLatency();
+    }
+
+    /**
+     * @return the datagram side channel session, or null if the remote didn't open one
+     */
+    public DatagramSideChannel.Session getDatagramSession() {
+        return datagramSession;
+    }
+
+    public InputAdmission getInputAdmission() {
+        if (eventJuggler == null) return null;
+        return eventJuggler.getInputAdmission();
+    }
+
+    /**
+     * runs the blocking part of connection setup: TLS handshake, version, auth/pairing, and metadata.
+     * if anything goes wrong, the connection is closed.
+     */
+    void init() {
         try {
-            Log.d(TAG, "Connection from " + socket.getRemoteSocketAddress());
+            Log.d(TAG, "Connection from " + channel.getRemoteSocketAddress());
 
             // init socket
-            socket.setTrafficClass(0x10 /* lowdelay */);
-            socket.startHandshake();
-
-            writer = TCPWriter.createFromStream(socket.getOutputStream(), CHARSET);
-            reader = TCPReader.createFromStream(socket.getInputStream(), CHARSET);
-            eventJuggler = new EventJuggler(context, socket, reader, writer, this::onSocketDeath, KEEPALIVE_INTERVAL, KEEPALIVE_TIMEOUT);
+            channel.setOption(StandardSocketOptions.IP_TOS, 0x10 /* lowdelay */);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);    // output is batched already
+
+            writer = TCPWriter.createFromChannel(channel, CHARSET);
+            reader = TCPReader.createFromChannel(channel, CHARSET, MAX_FRAME_SIZE);
+            setupTimeline.mark("socket setup");
+            channel.awaitHandshake(TLS_HANDSHAKE_TIMEOUT);
+            setupTimeline.mark("tls handshake");
+            Log.d(TAG, "CipherSuite: " + channel.getSession().getCipherSuite());
+            Log.d(TAG, "Protocol: " + channel.getSession().getProtocol());
+            Log.d(TAG, "TLS: " + channel.getHandshakeInfo());
+            Log.d(TAG, "LocalPrincipal: " + channel.getSession().getLocalPrincipal());
+
+            eventJuggler = new EventJuggler(context, channel, reader, writer, this::onSocketDeath, KEEPALIVE_INTERVAL, KEEPALIVE_TIMEOUT, OUTPUT_BATCH_LATENCY_CAP, INPUT_MAX_AGE);
+            setupTimeline.mark("event juggler");
 
             String version = reader.nextLine(SOCKET_AUTH_TIMEOUT);
+            setupTimeline.mark("version received");
+
+            if (version != null && version.startsWith(INIT_OP_HELLO + " ")) {
+                initHello(version.substring(INIT_OP_HELLO.length() + 1));
+                return;
+            }
 
-            // check verison
-            if (!VERSION_1.equals(version)) {
-                writer.sendLine(OP_UNSUPPORTED);
+            // check verison, optional features follow it
+            String[] versionLine = version == null ? new String[] {""} : version.split(" ");
+            if (!VERSION_1.equals(versionLine[0])) {
+                reject(OP_UNSUPPORTED);
                 return;
             }
-            writer.sendLine(OP_CONFIRM);
+
+            List<String> features = negotiateFeatures(Arrays.asList(versionLine).subList(1, versionLine.length));
+            StringBuilder versionResponse = new StringBuilder(OP_CONFIRM);
+            for (String feature : features) versionResponse.append(' ').append(feature);
+            sendNegotiationResponse(versionResponse.toString(), features);
+
+            setupTimeline.mark("version sent");
 
             String op = reader.nextLine(SOCKET_AUTH_TIMEOUT);
+            setupTimeline.mark("init op received");
             switch (op) {
                 case INIT_OP_PAIR -> initPairing();
                 case INIT_OP_CONNECT -> initRemote();
@@ -131,6 +241,70 @@ public class TVRemoteConnection implements Closeable {
         }
     }
 
+    /**
+     * turns on the requested features this receiver supports
+     * @param requested the requested features
+     * @return the features now in use
+     */
+    private List<String> negotiateFeatures(List<String> requested) {
+        List<String> features = new ArrayList<>();
+        if (requested.contains(FEATURE_BINARY_FRAMES)) features.add(FEATURE_BINARY_FRAMES);
+
+        if (requested.contains(FEATURE_UNACKED_OPS)) {
+            unackedOperations = true;
+            eventJuggler.enableUnackedOperations();
+            features.add(FEATURE_UNACKED_OPS);
+        }
+
+        return features;
+    }
+
+    private void sendNegotiationResponse(String line, List<String> features) throws IOException {
+        boolean binaryFrames = features.contains(FEATURE_BINARY_FRAMES);
+
+        // the remote waits for this response, so nothing binary has been sent yet
+        if (binaryFrames) reader.useBinaryFraming();
+        writer.sendLine(line);
+        if (binaryFrames) {
+            writer.useBinaryFraming();
+            Log.d(TAG, "using binary frames");
+        }
+    }
+
+    /**
+     * connects a paired remote from a single hello line, which replaces the version, init op, auth, and meta steps
+     * @param json the {@link HelloParams}
+     */
+    private void initHello(String json) throws IOException {
+        HelloParams hello;
+        try {
+            hello = gson.fromJson(json, HelloParams.class);
+        } catch (JsonParseException e) {
+            Log.w(TAG, "invalid hello", e);
+            hello = null;
+        }
+
+        if (hello == null || !VERSION_1.equals(hello.version())) {
+            reject(OP_UNSUPPORTED);
+            return;
+        }
+
+        if (!authenticate(hello.token())) return;
+
+        if (hello.meta() != null) {
+            Log.v(TAG, "got metadata: " + hello.meta());
+            pairingData = pairingData.updateDeviceMeta(hello.meta());
+        }
+
+        List<String> features = negotiateFeatures(hello.features() == null ? List.of() : hello.features());
+        OperationDefinition[] operations = getRemoteOperations();
+        HelloResponse response = new HelloResponse(features, getReceiverMeta(operations));
+        sendNegotiationResponse(OP_CONFIRM + " " + gson.toJson(response), features);
+        setupTimeline.mark("hello answered");
+
+        startRemote(operations);
+    }
+
     private void onSocketDeath(Throwable throwable) {
         tryClose(this);
 
@@ -147,10 +321,10 @@ public class TVRemoteConnection implements Closeable {
         Log.v(TAG, "starting pairing");
 
         cancelPairingCallback = () -> {
-            if (socket.isClosed()) return;
+            if (channel.isClosed()) return;
             controlScheme.getOverlayOutputOptional().ifPresent(o ->
                     o.displayNotification(R.string.notification_pairing_failed_title, R.string.notification_pairing_failed_description_cancelled, R.drawable.denied));
-            tryClose(socket);
+            tryClose(channel);
         };
 
         try {
@@ -161,31 +335,63 @@ public class TVRemoteConnection implements Closeable {
         }
 
         writer.sendLine(OP_CONFIRM);
+        setupTimeline.mark("pairing started");
 
         eventJuggler.start(getPairingOperations());
+        onReady();
 
     }
 
     private void initRemote() throws IOException, InterruptedException {
         String auth = reader.nextLine(SOCKET_AUTH_TIMEOUT);
-        pairingData = pairingManager.fetchPairingData(auth);
+        setupTimeline.mark("auth received");
+        if (!authenticate(auth)) return;
+        writer.sendLine(OP_CONFIRM);
+
+        OperationDefinition[] operations = getRemoteOperations();
+        exchangeMeta(operations);
+        setupTimeline.mark("meta exchanged");
+
+        startRemote(operations);
+    }
+
+    /**
+     * tells the remote why it's being turned away during init, then closes the connection
+     * @param status the response line
+     */
+    private void reject(String status) throws IOException {
+        try {
+            writer.sendLine(status);
+        } finally {
+            tryClose(this);
+        }
+    }
+
+    /**
+     * looks up the pairing data for a token, answering BAD_AUTH and closing the connection if there isn't any
+     * @param auth the auth token
+     * @return true if the remote is now trusted
+     */
+    private boolean authenticate(String auth) throws IOException {
+        pairingData = auth == null ? null : pairingManager.fetchPairingData(auth);
         if (pairingData == null) {
             Log.w(TAG, "client sent invalid authorization token");
-            writer.sendLine(OP_UNAUTHORIZED);
-            return;
+            reject(OP_UNAUTHORIZED);
+            return false;
         }
 
         // the token should already match, but it doesn't hurt to check, even in release builds
         if (!auth.equals(pairingData.token()))
             throw new AssertionError("PairingData doesn't match provided auth token!");
 
-        writer.sendLine(OP_CONFIRM);
+        return true;
+    }
 
+    private void startRemote(OperationDefinition[] operations) {
         // connection is trusted at this point
-        Log.i(TAG, "remote connected: " + socket.getRemoteSocketAddress());
+        Log.i(TAG, "remote connected: " + channel.getRemoteSocketAddress());
 
-        exchangeMeta();
-        pairingData.updateLastConnection(socket.getInetAddress().getHostAddress(), Instant.now().getEpochSecond());
+        pairingData.updateLastConnection(channel.getInetAddress().getHostAddress(), Instant.now().getEpochSecond());
         commitPairingMetaDiscardResult();
 
         controlScheme.getOverlayOutputOptional().ifPresent(o ->
@@ -196,18 +402,36 @@ public class TVRemoteConnection implements Closeable {
                         R.string.notification_remote_connected_description,
                         pairingData.deviceTypeEnum().toDrawable()));
 
-        eventJuggler.start(getRemoteOperations());
+        eventJuggler.start(operations);
+        onReady();
+    }
+
+    private void onReady() {
+        setupTimeline.mark("ready");
+        Log.d(TAG, "connection setup: " + setupTimeline);
     }
 
     private String getRemoteFriendlyName() {
-        if (pairingData == null) return socket.getRemoteSocketAddress().toString();
+        if (pairingData == null) return channel.getRemoteSocketAddress().toString();
         String friendlyName = pairingData.friendlyName();
-        if (friendlyName == null) return socket.getRemoteSocketAddress().toString();
+        if (friendlyName == null) return channel.getRemoteSocketAddress().toString();
         return friendlyName;
     }
 
-    private void exchangeMeta() throws IOException, InterruptedException {
-        writer.sendLine(OP_META + " " + gson.toJson(ReceiverDeviceMeta.getDeviceMeta(context, controlScheme)));
+    private ReceiverDeviceMeta getReceiverMeta(OperationDefinition[] operations) {
+        Set<String> unackedOperationNames = null;
+        if (unackedOperations) {
+            unackedOperationNames = new HashSet<>();
+            for (OperationDefinition operation : operations) {
+                if (operation.unacknowledged()) unackedOperationNames.add(operation.operation());
+            }
+        }
+
+        return ReceiverDeviceMeta.getDeviceMeta(context, controlScheme, unackedOperationNames, MAX_FRAME_SIZE);
+    }
+
+    private void exchangeMeta(OperationDefinition[] operations) throws IOException, InterruptedException {
+        writer.sendLine(OP_META + " " + gson.toJson(getReceiverMeta(operations)));
 
         String line = reader.nextLine(SOCKET_AUTH_TIMEOUT);
         if (line == null) {
@@ -273,7 +497,7 @@ public class TVRemoteConnection implements Closeable {
                     return switch (op) {
                         case OP_CONFIRM -> extra;
                         case OP_ERR -> throw parseError(extra);
-                        case OP_UNSUPPORTED -> throw new RemoteProtocolException(R.string.protocol_error_op_unsupported, "operation not supported by remote");
+                        case OP_UNSUPPORTED -> throw OP_UNSUPPORTED_BY_REMOTE;
                         default -> throw new RemoteProtocolException(R.string.protocol_error_response_invalid, "unexpected response from remote");
                     };
                 });
@@ -285,9 +509,10 @@ public class TVRemoteConnection implements Closeable {
         synchronized (deathLock) {
             if (dead) return;
             dead = true;
+            if (datagramSession != null) tryClose(datagramSession);
         }
 
-        tryClose(socket);
+        tryClose(channel);
 
         if (eventJuggler != null && !eventJuggler.isDead()) {
             eventJuggler.close();
@@ -338,37 +563,119 @@ public class TVRemoteConnection implements Closeable {
         };
     }
 
+    /**
+     * a late CLICK can be dropped, but a DOWN or UP can't, it might be half of a press that already started
+     */
+    private static boolean isClick(String extra, ByteBuffer payload) {
+        try {
+            KeyEventType type = payload != null ? BinaryProtocol.readKeyEventType(payload) : KeyEventType.parse(extra);
+            return type == KeyEventType.CLICK;
+        } catch (MalformedEventException e) {
+            return false;
+        }
+    }
+
+    private OperationDefinition keyEventOperation(String operation, Consumer<KeyEventType> keystrokeHandler) {
+        return new OperationDefinition(operation, handleKeyEvent(keystrokeHandler))
+                .withBinaryHandler(payload -> {
+                    keystrokeHandler.accept(BinaryProtocol.readKeyEventType(payload));
+                    return null;
+                })
+                .sheddable(TVRemoteConnection::isClick)
+                .onInputLane();
+    }
+
+    private OperationDefinition unackedKeyEventOperation(String operation, Consumer<KeyEventType> keystrokeHandler) {
+        return keyEventOperation(operation, keystrokeHandler).asUnacknowledged();
+    }
+
+    /**
+     * commits one piece of chunked text, right as it arrives. a high surrogate at the end is held back
+     * until the next piece, so a character split between pieces is still committed whole.
+     */
+    private boolean commitTextChunk(String text, boolean last) {
+        if (text == null) text = "";
+        if (textChunkCarry != null) {
+            text = textChunkCarry + text;
+            textChunkCarry = null;
+        }
+
+        if (!last && !text.isEmpty() && Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+            textChunkCarry = text.substring(text.length() - 1);
+            text = text.substring(0, text.length() - 1);
+        }
+
+        if (text.isEmpty()) return true;
+        return controlScheme.getKeyboardInput().commitText(text, 1);
+    }
+
+    /**
+     * adds up two "x y" cursor deltas
+     * @return the combined delta, or null if either one is malformed, so it fails on its own
+     */
+    private static String mergeCursorMoves(String first, String second) {
+        if (first == null || second == null) return null;
+        int iFirst = first.indexOf(' ');
+        int iSecond = second.indexOf(' ');
+        if (iFirst < 1 || iSecond < 1) return null;
+
+        try {
+            int x = Math.addExact(Integer.parseInt(first.substring(0, iFirst)), Integer.parseInt(second.substring(0, iSecond)));
+            int y = Math.addExact(Integer.parseInt(first.substring(iFirst + 1)), Integer.parseInt(second.substring(iSecond + 1)));
+            return x + " " + y;
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * adds up two binary cursor deltas
+     * @return the combined delta, or null if either one is malformed or the sum doesn't fit in an int16
+     */
+    private static ByteBuffer mergeBinaryCursorMoves(ByteBuffer first, ByteBuffer second) {
+        if (first.remaining() < 4 || second.remaining() < 4) return null;
+        int x = first.getShort() + second.getShort();
+        int y = first.getShort() + second.getShort();
+        if (x != (short) x || y != (short) y) return null;
+
+        ByteBuffer merged = ByteBuffer.allocate(4);
+        merged.putShort((short) x).putShort((short) y);
+        merged.flip();
+        return merged;
+    }
+
     private OperationDefinition[] getRemoteOperations() {
         return new OperationDefinition[] {
-                new OperationDefinition(OP_DPAD_UP, handleKeyEvent(type -> controlScheme.getDirectionalPadInput().dpadUp(type))),
-                new OperationDefinition(OP_DPAD_DOWN, handleKeyEvent(type -> controlScheme.getDirectionalPadInput().dpadDown(type))),
-                new OperationDefinition(OP_DPAD_LEFT, handleKeyEvent(type -> controlScheme.getDirectionalPadInput().dpadLeft(type))),
-                new OperationDefinition(OP_DPAD_RIGHT, handleKeyEvent(type -> controlScheme.getDirectionalPadInput().dpadRight(type))),
-                new OperationDefinition(OP_DPAD_SELECT, handleKeyEvent(type -> controlScheme.getDirectionalPadInput().dpadSelect(type))),
-                new OperationDefinition(OP_DPAD_LONG_PRESS, () -> controlScheme.getDirectionalPadInput().dpadLongPress()),
-
-                new OperationDefinition(OP_NAV_HOME, handleKeyEvent(type -> controlScheme.getFullNavigationInput().navHome(type))),
-                new OperationDefinition(OP_NAV_BACK, handleKeyEvent(type -> controlScheme.getBackNavigationInput().navBack(type))),
-                new OperationDefinition(OP_NAV_RECENT, handleKeyEvent(type -> controlScheme.getFullNavigationInput().navRecent(type))),
-                new OperationDefinition(OP_NAV_NOTIFICATIONS, handleKeyEvent(type -> controlScheme.getFullNavigationInput().navNotifications(type))),
-                new OperationDefinition(OP_NAV_QUICK_SETTINGS, () -> controlScheme.getFullNavigationInput().navQuickSettings()),
-
-                new OperationDefinition(OP_VOLUME_UP, handleKeyEvent(type -> controlScheme.getVolumeInput().volumeUp(type))),
-                new OperationDefinition(OP_VOLUME_DOWN, handleKeyEvent(type -> controlScheme.getVolumeInput().volumeDown(type))),
-                new OperationDefinition(OP_MUTE, () -> controlScheme.getVolumeInput().mute()),
-                new OperationDefinition(OP_UNMUTE, () -> controlScheme.getVolumeInput().unmute()),
-                new OperationDefinition(OP_MUTE_TOGGLE, handleKeyEvent(type -> controlScheme.getVolumeInput().toggleMute(type))),
-
-                new OperationDefinition(OP_PLAY, handleKeyEvent(type -> controlScheme.getMediaInput().play(type))),
-                new OperationDefinition(OP_PAUSE, handleKeyEvent(type -> controlScheme.getMediaInput().pause(type))),
-                new OperationDefinition(OP_PLAY_PAUSE, handleKeyEvent(type -> controlScheme.getMediaInput().playPause(type))),
-                new OperationDefinition(OP_NEXT_TRACK, handleKeyEvent(type -> controlScheme.getMediaInput().nextTrack(type))),
-                new OperationDefinition(OP_PREV_TRACK, handleKeyEvent(type -> controlScheme.getMediaInput().prevTrack(type))),
-                new OperationDefinition(OP_SKIP_BACKWARD, handleKeyEvent(type -> controlScheme.getMediaInput().skipBackward(type))),
-                new OperationDefinition(OP_SKIP_FORWARD, handleKeyEvent(type -> controlScheme.getMediaInput().skipForward(type))),
-
-                new OperationDefinition(OP_CURSOR_SHOW, () -> controlScheme.getCursorInput().showCursor()),
-                new OperationDefinition(OP_CURSOR_HIDE, () -> controlScheme.getCursorInput().hideCursor()),
+                unackedKeyEventOperation(OP_DPAD_UP, type -> controlScheme.getDirectionalPadInput().dpadUp(type)),
+                unackedKeyEventOperation(OP_DPAD_DOWN, type -> controlScheme.getDirectionalPadInput().dpadDown(type)),
+                unackedKeyEventOperation(OP_DPAD_LEFT, type -> controlScheme.getDirectionalPadInput().dpadLeft(type)),
+                unackedKeyEventOperation(OP_DPAD_RIGHT, type -> controlScheme.getDirectionalPadInput().dpadRight(type)),
+                unackedKeyEventOperation(OP_DPAD_SELECT, type -> controlScheme.getDirectionalPadInput().dpadSelect(type)),
+                new OperationDefinition(OP_DPAD_LONG_PRESS, () -> controlScheme.getDirectionalPadInput().dpadLongPress())
+                        .sheddable((extra, payload) -> true).onInputLane(),
+
+                keyEventOperation(OP_NAV_HOME, type -> controlScheme.getFullNavigationInput().navHome(type)),
+                keyEventOperation(OP_NAV_BACK, type -> controlScheme.getBackNavigationInput().navBack(type)),
+                keyEventOperation(OP_NAV_RECENT, type -> controlScheme.getFullNavigationInput().navRecent(type)),
+                keyEventOperation(OP_NAV_NOTIFICATIONS, type -> controlScheme.getFullNavigationInput().navNotifications(type)),
+                new OperationDefinition(OP_NAV_QUICK_SETTINGS, () -> controlScheme.getFullNavigationInput().navQuickSettings()).onInputLane(),
+
+                keyEventOperation(OP_VOLUME_UP, type -> controlScheme.getVolumeInput().volumeUp(type)),
+                keyEventOperation(OP_VOLUME_DOWN, type -> controlScheme.getVolumeInput().volumeDown(type)),
+                new OperationDefinition(OP_MUTE, () -> controlScheme.getVolumeInput().mute()).onInputLane(),
+                new OperationDefinition(OP_UNMUTE, () -> controlScheme.getVolumeInput().unmute()).onInputLane(),
+                keyEventOperation(OP_MUTE_TOGGLE, type -> controlScheme.getVolumeInput().toggleMute(type)),
+
+                keyEventOperation(OP_PLAY, type -> controlScheme.getMediaInput().play(type)),
+                keyEventOperation(OP_PAUSE, type -> controlScheme.getMediaInput().pause(type)),
+                keyEventOperation(OP_PLAY_PAUSE, type -> controlScheme.getMediaInput().playPause(type)),
+                keyEventOperation(OP_NEXT_TRACK, type -> controlScheme.getMediaInput().nextTrack(type)),
+                keyEventOperation(OP_PREV_TRACK, type -> controlScheme.getMediaInput().prevTrack(type)),
+                keyEventOperation(OP_SKIP_BACKWARD, type -> controlScheme.getMediaInput().skipBackward(type)),
+                keyEventOperation(OP_SKIP_FORWARD, type -> controlScheme.getMediaInput().skipForward(type)),
+
+                new OperationDefinition(OP_CURSOR_SHOW, () -> controlScheme.getCursorInput().showCursor()).onInputLane(),
+                new OperationDefinition(OP_CURSOR_HIDE, () -> controlScheme.getCursorInput().hideCursor()).onInputLane(),
                 new OperationDefinition(OP_CURSOR_MOVE, extra -> {
                     protocolAssert(extra != null, R.string.protocol_error_mouse_move_bad_coordinates, "no mouse coordinates provided");
                     int iSep = extra.indexOf(' ');
@@ -383,8 +690,14 @@ public class TVRemoteConnection implements Closeable {
                     }
 
                     controlScheme.getCursorInput().cursorMove(x, y);
-                }),
-                new OperationDefinition(OP_CURSOR_LEFT_BUTTON, handleKeyEvent(type -> controlScheme.getCursorInput().leftClick(type))),
+                }).withBinaryHandler(payload -> {
+                    // fixed layout: two big-endian int16 deltas
+                    protocolAssert(payload.remaining() >= 4, R.string.protocol_error_mouse_move_bad_coordinates, "not enough mouse coordinates were provided");
+                    controlScheme.getCursorInput().cursorMove(payload.getShort(), payload.getShort());
+                    return null;
+                }).mergeable(TVRemoteConnection::mergeCursorMoves, TVRemoteConnection::mergeBinaryCursorMoves)
+                        .onInputLane().asUnacknowledged(),
+                unackedKeyEventOperation(OP_CURSOR_LEFT_BUTTON, type -> controlScheme.getCursorInput().leftClick(type)),
 
                 new OperationDefinition(OP_EXTRA_BUTTON, extra -> {
                     switch (extra) {
@@ -399,6 +712,11 @@ public class TVRemoteConnection implements Closeable {
                     boolean result = controlScheme.getKeyboardInput().commitText(commitText.text(), commitText.newCursorPosition());
                     return String.valueOf(result);
                 }),
+                new OperationDefinition(OP_COMMIT_TEXT_CHUNK, extra -> {
+                    CommitTextChunkParams chunk = gson.fromJson(extra, CommitTextChunkParams.class);
+                    boolean result = commitTextChunk(chunk.text(), chunk.last());
+                    return String.valueOf(result);
+                }),
                 new OperationDefinition(OP_DELETE_TEXT, extra -> {
                     DeleteTextParams deleteText = gson.fromJson(extra, DeleteTextParams.class);
                     boolean result = controlScheme.getKeyboardInput().deleteSurroundingText(deleteText.before(), deleteText.after());
@@ -429,8 +747,31 @@ public class TVRemoteConnection implements Closeable {
                     subscribedEventTypes.remove(extra);
                 }),
 
+                new OperationDefinition(OP_DATAGRAM_OPEN, this::openDatagramSession),
+
                 new OperationDefinition(OP_PING, () -> {}),
         };
     }
 
+    /**
+     * opens a datagram side channel session for this remote, replacing any earlier one
+     * @return the {@link DatagramOpenResponse}
+     */
+    private String openDatagramSession() throws GeneralSecurityException, RemoteProtocolException {
+        if (datagramSideChannel == null)
+            throw new RemoteProtocolException(R.string.protocol_error_datagrams_unavailable, "datagram side channel isn't running");
+
+        DatagramSideChannel.Session session = datagramSideChannel.open(eventJuggler.createDatagramReceiver());
+        synchronized (deathLock) {
+            if (datagramSession != null) tryClose(datagramSession);
+            datagramSession = session;
+            if (dead) tryClose(session);
+        }
+
+        return gson.toJson(new DatagramOpenResponse(
+                datagramSideChannel.getPort(),
+                session.getId(),
+                Base64.encodeToString(session.getKey(), Base64.NO_WRAP)));
+    }
+
 }
@@ -14,20 +14,23 @@ import android.util.Log;
 import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.SecureRandom;
+import java.security.cert.Certificate;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocket;
-import javax.net.ssl.SSLServerSocketFactory;
-import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 
 import io.benwiegand.atvremote.receiver.async.Sec;
-import io.benwiegand.atvremote.receiver.auth.ssl.CorruptedKeystoreException;
+import io.benwiegand.atvremote.receiver.async.Signals;
+import io.benwiegand.atvremote.receiver.async.TimingWheel;
+import io.benwiegand.atvremote.receiver.async.WorkerPool;
 import io.benwiegand.atvremote.receiver.auth.ssl.KeyUtil;
 import io.benwiegand.atvremote.receiver.auth.ssl.KeystoreManager;
 import io.benwiegand.atvremote.receiver.control.AccessibilityInputService;
@@ -42,8 +45,15 @@ public class TVRemoteServer extends Service {
     private static final int AUTO_PORT_NUMBER = 0;
     private static final int TARGET_PORT_NUMBER = FIX_PORT_NUMBER ? 6969 : AUTO_PORT_NUMBER;
 
+    // an existing key of another type is replaced, and remotes paired against it have to pair again
+    private static final KeystoreManager.KeyType SERVER_KEY_TYPE = KeystoreManager.KeyType.EC;
+
+    // lets remotes that drop and come back (screen off, wifi roaming) skip the full handshake
+    private static final int TLS_SESSION_CACHE_SIZE = 64;
+    private static final int TLS_SESSION_TIMEOUT = 8 * 60 * 60; // seconds
+
     private final ServerBinder binder = new ServerBinder();
-    private SSLServerSocketFactory serverSocketFactory = null;
+    private SSLContext sslContext = null;
     private PairingManager pairingManager = null;
     private final EventStreamManager eventStreamManager = new EventStreamManager(this::sendEvent);
 
@@ -54,7 +64,11 @@ public class TVRemoteServer extends Service {
 
     private final Object listenThreadLock = new Object();
     private Thread listenThread = null;
-    private SSLServerSocket serverSocket = null;
+    private ServerSocketChannel serverSocket = null;
+    private NetworkEventLoop eventLoop = null;
+    private DatagramSideChannel datagramSideChannel = null;
+    private final HandshakeStage handshakeStage = new HandshakeStage();
+    private final StartupPipeline startup = new StartupPipeline(WorkerPool.getShared());
     private boolean shutdown = false;
 
     private ControlSourceConnectionManager controlSourceConnectionManager;
@@ -82,6 +96,9 @@ public class TVRemoteServer extends Service {
         }
 
         if (serverSocket != null) tryClose(serverSocket);
+        if (datagramSideChannel != null) tryClose(datagramSideChannel);
+        tryClose(handshakeStage);
+        if (eventLoop != null) tryClose(eventLoop);
 
         controlSourceConnectionManager.destroy();
         eventStreamManager.destroy();
@@ -94,6 +111,7 @@ public class TVRemoteServer extends Service {
     }
 
     private void onInputServiceBind(IBinder iBinder) {
+        startup.mark("bound " + iBinder.getClass().getSimpleName());
         if (iBinder instanceof NotificationInputService.ServiceBinder serviceBinder) {
             serviceBinder.onServerBind(eventStreamManager);
         } else if (iBinder instanceof AccessibilityInputService.AccessibilityInputHandler serviceBinder) {
@@ -103,7 +121,7 @@ public class TVRemoteServer extends Service {
 
     private Sec<Void> sendEvent(UUID connectionUUID, String event) {
         TVRemoteConnection connection = connections.get(connectionUUID);
-        if (connection == null) return Sec.premeditatedError(new IOException("no such connection"));
+        if (connection == null) return Sec.premeditatedError(Signals.connectionClosed("no such connection"));
 
         return connection.sendOperation(OP_EVENT_STREAM_EVENT + " " + event)
                 .map(r -> null);
@@ -126,58 +144,129 @@ public class TVRemoteServer extends Service {
 
     private void listenLoop() {
         try {
+            StartupPipeline.Stage<SecureRandom> random = startup.stage("secure random",
+                    KeyUtil::getSharedSecureRandom);  // getInstanceStrong() can block waiting for entropy
 
-            KeystoreManager keystoreManager;
-            byte[] fingerprint;
-            try {
+            // so the first connections don't pay for thread creation
+            startup.stage("workers", () -> {
+                WorkerPool.getShared().prestartCoreThreads();
+                WorkerPool.getInput().prestartCoreThreads();
+                return null;
+            });
+
+            StartupPipeline.Stage<KeystoreManager> keystore = startup.stage("keystore", () -> {
                 Log.v(TAG, "initializing keystore");
-                keystoreManager = new KeystoreManager(this);
+                KeystoreManager keystoreManager = new KeystoreManager(this);
                 keystoreManager.loadKeystore();
-                keystoreManager.initSSL();
-                keystoreManager.saveKeystore();
+                keystoreManager.initSSL(SERVER_KEY_TYPE);
+                return keystoreManager;
+            });
 
-                // since there's no "root of trust" here, the user must somehow compare these fingerprints
-                fingerprint = KeyUtil.calculateCertificateFingerprint(keystoreManager.getSSLCertificate());
-                pairingManager.setFingerprint(fingerprint);
+            StartupPipeline.Stage<Void> keystoreSave = startup.stage("keystore save", () -> {
+                keystore.await().saveKeystore();
+                return null;
+            }, keystore);
 
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(keystoreManager.getKeyManagers(), keystoreManager.getTrustManagers(), SecureRandom.getInstanceStrong());
+            StartupPipeline.Stage<Void> fingerprint = startup.stage("fingerprint", () -> {
+                // since there's no "root of trust" here, the user must somehow compare these fingerprints
+                KeystoreManager keystoreManager = keystore.await();
+                Certificate replaced = keystoreManager.getReplacedSSLCertificate();
+                if (replaced != null) pairingManager.setReplacedFingerprint(KeyUtil.calculateCertificateFingerprint(replaced));
+                pairingManager.setFingerprint(KeyUtil.calculateCertificateFingerprint(keystoreManager.getSSLCertificate()));
+                return null;
+            }, keystore);
+
+            StartupPipeline.Stage<SSLContext> ssl = startup.stage("ssl context", () -> {
+                KeystoreManager keystoreManager = keystore.await();
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(keystoreManager.getKeyManagers(), keystoreManager.getTrustManagers(), random.await());
+                SSLSessionContext sessionContext = context.getServerSessionContext();
+                sessionContext.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+                sessionContext.setSessionTimeout(TLS_SESSION_TIMEOUT);
                 // todo: harden supported ciphers
-//                sslContext.getSupportedSSLParameters().setCipherSuites();
+//                context.getSupportedSSLParameters().setCipherSuites();
+                return context;
+            }, keystore, random);
+
+            // the socket doesn't need the keystore. remotes which connect early wait in the backlog.
+            StartupPipeline.Stage<ServerSocketChannel> socket = startup.stage("server socket", () -> {
+                if (serverSocket != null && serverSocket.isOpen()) {
+                    Log.w(TAG, "closing existing server socket");
+                    tryClose(serverSocket);
+                }
 
-                serverSocketFactory = sslContext.getServerSocketFactory();
+                if (eventLoop == null) {
+                    eventLoop = new NetworkEventLoop();
+                    eventLoop.start();
+                }
 
-            } catch (IOException | CorruptedKeystoreException | KeyManagementException |
-                     NoSuchAlgorithmException e) {
-                Log.wtf(TAG, "failed to load keystore", e);
+                Log.d(TAG, "starting server socket on port " + TARGET_PORT_NUMBER);
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.bind(new InetSocketAddress(TARGET_PORT_NUMBER));
+                Log.d(TAG, "listening on port " + channel.socket().getLocalPort());
+                serverSocket = channel;
+                return channel;
+            });
+
+            // optional, remotes just won't get datagrams without it
+            StartupPipeline.Stage<DatagramSideChannel> datagrams = startup.stage("datagram socket", () -> {
+                if (datagramSideChannel != null) tryClose(datagramSideChannel);
+                datagramSideChannel = new DatagramSideChannel(eventLoop);
+                Log.d(TAG, "datagram side channel on port " + datagramSideChannel.getPort());
+                return datagramSideChannel;
+            }, socket);
+
+            startup.stage("advertise", () -> {
+                startAdvertising(socket.await().socket().getLocalPort());
+                return null;
+            }, socket);
+
+            try {
+                keystoreSave.await();
+                fingerprint.await();
+                sslContext = ssl.await();
+                socket.await();
+            } catch (StartupPipeline.StartupException e) {
+                Log.wtf(TAG, "failed to start server", e);
                 // todo: error notifications
                 return;
+            } catch (InterruptedException e) {
+                Log.e(TAG, "interrupted during startup", e);
+                return;
             }
 
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                Log.w(TAG, "closing existing server socket");
-                tryClose(serverSocket);
+            try {
+                datagrams.await();
+            } catch (StartupPipeline.StartupException e) {
+                Log.e(TAG, "datagram side channel unavailable", e);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "interrupted during startup", e);
+                return;
             }
 
-            Log.d(TAG, "starting server socket on port " + TARGET_PORT_NUMBER);
-            serverSocket = (SSLServerSocket) serverSocketFactory.createServerSocket(TARGET_PORT_NUMBER);
-            Log.d(TAG, "listening on port " + serverSocket.getLocalPort());
-            startAdvertising(serverSocket.getLocalPort());
+            startup.mark("accepting");
+            Log.i(TAG, "startup timeline: " + startup);
 
+            boolean firstAccept = true;
             while (!shutdown) {
-                SSLSocket newSocket = (SSLSocket) serverSocket.accept();
-                Log.d(TAG, "CipherSuite: " + newSocket.getSession().getCipherSuite());
-                Log.d(TAG, "Protocol: " + newSocket.getSession().getProtocol());
-                Log.d(TAG, "LocalPrincipal: " + newSocket.getSession().getLocalPrincipal());
+                SocketChannel newSocket = serverSocket.accept();
+                if (firstAccept) {
+                    startup.mark("first accept");
+                    firstAccept = false;
+                }
+                SSLEngine engine = sslContext.createSSLEngine();
+                engine.setUseClientMode(false);
+                TLSChannel channel = new TLSChannel(eventLoop, newSocket, engine);
 
-                synchronized (connections) {
+                handshakeStage.submit(channel, () -> {
                     UUID connectionUUID = UUID.randomUUID();
                     TVRemoteConnection connection = new TVRemoteConnection(
-                            this, connectionUUID, pairingManager, eventStreamManager, newSocket,
-                            controlSourceConnectionManager.getControlScheme(),
+                            this, connectionUUID, pairingManager, eventStreamManager, channel,
+                            controlSourceConnectionManager.getControlScheme(), datagramSideChannel,
                             () -> onConnectionDeath(connectionUUID));
                     connections.put(connectionUUID, connection);
-                }
+                    connection.init();
+                });
             }
         } catch (IOException e) {
             // todo: try to recover from specific errors
@@ -197,11 +286,42 @@ public class TVRemoteServer extends Service {
     public class ServerBinder extends Binder {
         public int getPort() {
             if (serverSocket == null) return -1;
-            return serverSocket.getLocalPort();
+            return serverSocket.socket().getLocalPort();
         }
 
         public Map<UUID, TVRemoteConnection> getConnections() {
             return connections;
         }
+
+        public int getAcceptQueueDepth() {
+            return handshakeStage.getQueueDepth();
+        }
+
+        public int getActiveHandshakes() {
+            return handshakeStage.getActiveCount();
+        }
+
+        /**
+         * @return the datagram side channel, or null if it isn't running
+         */
+        public DatagramSideChannel getDatagramSideChannel() {
+            return datagramSideChannel;
+        }
+
+        public HandshakeStats getHandshakeStats() {
+            return handshakeStage.getStats();
+        }
+
+        public WorkerPool.Stats getWorkerPoolStats() {
+            return WorkerPool.getShared().getStats();
+        }
+
+        public StartupPipeline getStartupTimeline() {
+            return startup;
+        }
+
+        public TimingWheel.Stats getTimeoutStats() {
+            return TimingWheel.getShared().getStats();
+        }
     }
 }
@@ -0,0 +1,64 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counters for what actually goes over the wire on a connection
+ */
+public class WireStats {
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder socketWrites = new LongAdder();
+
+    void recordFlush(int lineCount, int byteCount) {
+        flushes.increment();
+        lines.add(lineCount);
+        bytes.add(byteCount);
+    }
+
+    void recordTLSRecord() {
+        records.increment();
+    }
+
+    void recordSocketWrite() {
+        socketWrites.increment();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getLines() {
+        return lines.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getRecords() {
+        return records.sum();
+    }
+
+    public long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    private static double ratio(long a, long b) {
+        return b == 0 ? 0 : (double) a / b;
+    }
+
+    @Override
+    public String toString() {
+        long flushes = getFlushes();
+        return String.format(Locale.ROOT, "flushes=%d lines/flush=%.2f records/flush=%.2f writes/flush=%.2f bytes=%d",
+                flushes,
+                ratio(getLines(), flushes),
+                ratio(getRecords(), flushes),
+                ratio(getSocketWrites(), flushes),
+                getBytes());
+    }
+}
@@ -3,8 +3,12 @@ package io.benwiegand.atvremote.receiver.network.event;
 import android.os.SystemClock;
 
 import io.benwiegand.atvremote.receiver.async.SecAdapter;
+import io.benwiegand.atvremote.receiver.async.TimingWheel;
 
-public record InFlightEvent(SecAdapter<EventResult> adapter, long enqueuedAt) {
+/**
+ * @param sentAt {@link System#nanoTime()} when the event was written, for measuring the round trip
+ */
+public record InFlightEvent(SecAdapter<EventResult> adapter, long enqueuedAt, long sentAt, TimingWheel.Timeout timeout) {
 
     public boolean isExpired(long timeout) {
         return SystemClock.elapsedRealtime() - enqueuedAt() - timeout > 0;
@@ -0,0 +1,77 @@
+package io.benwiegand.atvremote.receiver.network.event;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.benwiegand.atvremote.receiver.R;
+import io.benwiegand.atvremote.receiver.async.SecAdapter;
+import io.benwiegand.atvremote.receiver.async.TimingWheel;
+import io.benwiegand.atvremote.receiver.protocol.RemoteProtocolException;
+
+/**
+ * events that were sent and are waiting for a response.
+ * <p>
+ *     whoever removes an event owns its adapter, so it's completed exactly once: by its response, its
+ *     timeout, a failure to send it, or the connection closing.
+ * </p>
+ */
+public final class InFlightEvents {
+    private static final String TAG = InFlightEvents.class.getSimpleName();
+
+    public static final RemoteProtocolException EVENT_TIMED_OUT = RemoteProtocolException.signal(R.string.protocol_error_event_timeout, "timed out");
+
+    private final Map<String, InFlightEvent> events = new ConcurrentHashMap<>();
+    private final TimingWheel timingWheel;
+
+    public InFlightEvents(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public boolean contains(String eventId) {
+        return events.containsKey(eventId);
+    }
+
+    /**
+     * tracks an event and starts its timeout
+     * @param enqueuedAt {@link android.os.SystemClock#elapsedRealtime()} when it was queued
+     * @param timeout time until it fails with {@link #EVENT_TIMED_OUT}, in milliseconds
+     */
+    public void add(String eventId, SecAdapter<EventResult> adapter, long enqueuedAt, long timeout) {
+        TimingWheel.Timeout expiry = timingWheel.schedule(timeout, () -> expire(eventId, adapter));
+        InFlightEvent collision = events.putIfAbsent(eventId, new InFlightEvent(adapter, enqueuedAt, System.nanoTime(), expiry));
+        assert collision == null; // this should be impossible
+    }
+
+    /**
+     * stops tracking an event, and hands its adapter to the caller
+     * @return the event, or null if it was already completed
+     */
+    public InFlightEvent remove(String eventId) {
+        InFlightEvent inFlightEvent = events.remove(eventId);
+        if (inFlightEvent == null) return null;
+        inFlightEvent.timeout().cancel();
+        return inFlightEvent;
+    }
+
+    /**
+     * fails every event still waiting
+     */
+    public void failAll(Throwable t) {
+        for (String eventId : events.keySet()) {
+            InFlightEvent inFlightEvent = remove(eventId);
+            if (inFlightEvent != null) inFlightEvent.adapter().throwError(t);
+        }
+    }
+
+    private void expire(String eventId, SecAdapter<EventResult> adapter) {
+        // the id could have been reused since, only remove it if it's still this event
+        InFlightEvent inFlightEvent = events.get(eventId);
+        if (inFlightEvent == null || inFlightEvent.adapter() != adapter) return;
+        if (!events.remove(eventId, inFlightEvent)) return;
+
+        Log.d(TAG, "expiring event: " + eventId);
+        adapter.throwError(EVENT_TIMED_OUT);
+    }
+}
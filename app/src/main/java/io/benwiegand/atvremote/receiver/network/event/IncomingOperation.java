@@ -0,0 +1,57 @@
+package io.benwiegand.atvremote.receiver.network.event;
+
+import java.nio.ByteBuffer;
+
+import io.benwiegand.atvremote.receiver.protocol.OperationDefinition;
+
+/**
+ * an operation from the remote that hasn't been handled yet
+ * @param eventId the event id, or null if it came without one (over the datagram side channel). those never get a response.
+ * @param binaryFramed true if it came as a binary operation frame (or datagram), rather than as a line
+ * @param extra the text extra, if the op came as text (or as a binary op without a binary handler)
+ * @param payload the fixed binary payload, only if the op has a binary handler for it
+ * @param receivedAt {@link System#nanoTime()} when it was read
+ */
+public record IncomingOperation(String eventId, boolean binaryFramed, OperationDefinition definition, String extra, ByteBuffer payload, long receivedAt) {
+
+    public boolean isBinary() {
+        return payload != null;
+    }
+
+    /**
+     * @return true if this call can be dropped without leaving anything half done (see {@link OperationDefinition#sheddable()})
+     */
+    public boolean isSheddable() {
+        if (isBinary() ? definition.binaryMerger() != null : definition.merger() != null) return true;
+        return definition.sheddable() != null && definition.sheddable().test(extra, isBinary() ? payload.duplicate() : null);
+    }
+
+    /**
+     * runs the op's handler
+     * @return the response extra
+     */
+    public String handle() throws Throwable {
+        if (isBinary()) return definition.binaryHandler().apply(payload);
+        return definition.handler().apply(extra);
+    }
+
+    /**
+     * combines this op with a later call to the same op, if the op allows it
+     * @param next the later call
+     * @return one op with the effect of both, under the later event id, or null if they can't be merged
+     */
+    public IncomingOperation mergeWith(IncomingOperation next) {
+        if (next.definition() != definition || next.isBinary() != isBinary() || next.binaryFramed() != binaryFramed) return null;
+        if (isBinary()) {
+            if (definition.binaryMerger() == null) return null;
+            ByteBuffer merged = definition.binaryMerger().apply(payload.duplicate(), next.payload().duplicate());
+            if (merged == null) return null;
+            return new IncomingOperation(next.eventId(), next.binaryFramed(), definition, null, merged, next.receivedAt());
+        }
+
+        if (definition.merger() == null) return null;
+        String merged = definition.merger().apply(extra, next.extra());
+        if (merged == null) return null;
+        return new IncomingOperation(next.eventId(), next.binaryFramed(), definition, merged, null, next.receivedAt());
+    }
+}
@@ -0,0 +1,198 @@
+package io.benwiegand.atvremote.receiver.network.event;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.benwiegand.atvremote.receiver.R;
+import io.benwiegand.atvremote.receiver.protocol.RemoteProtocolException;
+
+/**
+ * sits between the reader and the input lane, and decides which input is still worth handling.
+ * <p>
+ *     when input arrives faster than it can be handled (like a burst after wifi stalls for a moment),
+ *     replaying all of it late is worse than dropping some. so:
+ * </p>
+ * <ul>
+ *     <li>a call of an op that can be merged (cursor moves) is merged into the previous call if that's
+ *     still waiting, so a stream of them only ever takes one spot</li>
+ *     <li>input that waited longer than the max age is dropped</li>
+ *     <li>if too much is waiting, the oldest is dropped</li>
+ * </ul>
+ * <p>
+ *     only self-contained input is ever dropped (see {@link IncomingOperation#isSheddable()}). the DOWN
+ *     of a key could already have run, so dropping its UP would leave the key stuck down. those run
+ *     however late they are, so reading is paused while too much is waiting. if input still piles up
+ *     to twice the max (what was already read when the pause kicked in), new input is rejected.
+ * </p>
+ * <p>
+ *     every op still gets exactly one outcome: merged ops are acknowledged like they ran, and dropped
+ *     ops fail with an error, even if they're unacknowledged.
+ * </p>
+ */
+public class InputAdmission {
+
+    public interface Handler {
+        /**
+         * runs an op, on the lane
+         */
+        void run(IncomingOperation operation);
+
+        /**
+         * an op was folded into a later call of the same op
+         */
+        void merged(IncomingOperation operation);
+
+        /**
+         * an op was dropped or rejected
+         */
+        void shed(IncomingOperation operation, RemoteProtocolException reason);
+
+        /**
+         * stops or resumes reading input. called with the queue locked so the calls stay in order, so
+         * it must not block.
+         */
+        void setReadPaused(boolean paused);
+    }
+
+    private static final RemoteProtocolException DROPPED = RemoteProtocolException.signal(R.string.protocol_error_input_dropped, "too much input waiting");
+    private static final RemoteProtocolException EXPIRED = RemoteProtocolException.signal(R.string.protocol_error_input_expired, "input waited too long");
+    private static final RemoteProtocolException REJECTED = RemoteProtocolException.signal(R.string.protocol_error_input_rejected, "too much input waiting that can't be dropped");
+
+    private final Deque<IncomingOperation> queue = new ArrayDeque<>();
+    private boolean draining = false;   // guarded by queue
+    private boolean readPaused = false; // guarded by queue
+
+    private final Executor lane;
+    private final long maxAge;  // ns
+    private final int maxPending;
+    private final int hardLimit;
+    private final Handler handler;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param lane where ops run, in order
+     * @param maxAge how long an op can wait before it's dropped, in milliseconds
+     * @param maxPending how many ops can wait before the oldest sheddable one is dropped and reading pauses
+     */
+    public InputAdmission(Executor lane, long maxAge, int maxPending, Handler handler) {
+        this.lane = lane;
+        this.maxAge = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        this.maxPending = maxPending;
+        this.hardLimit = maxPending * 2;
+        this.handler = handler;
+    }
+
+    public void admit(IncomingOperation operation) {
+        admitted.increment();
+
+        IncomingOperation absorbed = null;
+        IncomingOperation dropped = null;
+        IncomingOperation refused = null;
+        boolean schedule = false;
+        synchronized (queue) {
+            IncomingOperation last = queue.peekLast();
+            IncomingOperation combined = last == null ? null : last.mergeWith(operation);
+            if (combined != null) {
+                queue.pollLast();
+                absorbed = last;
+                operation = combined;
+            }
+
+            queue.add(operation);
+            if (queue.size() > maxPending) dropped = pollOldestSheddable();
+            if (dropped == null && queue.size() > hardLimit) {
+                // nothing can make room for it. a merged op never gets here, it doesn't take a new spot
+                queue.pollLast();
+                refused = operation;
+            }
+
+            if (!readPaused && queue.size() >= maxPending) {
+                readPaused = true;
+                handler.setReadPaused(true);
+            }
+
+            if (!draining) {
+                draining = true;
+                schedule = true;
+            }
+        }
+
+        if (absorbed != null) {
+            merged.increment();
+            handler.merged(absorbed);
+        }
+
+        if (dropped != null) {
+            overflowed.increment();
+            handler.shed(dropped, DROPPED);
+        }
+
+        if (refused != null) {
+            rejected.increment();
+            handler.shed(refused, REJECTED);
+        }
+
+        if (schedule) lane.execute(this::drain);
+    }
+
+    private void drain() {
+        while (true) {
+            IncomingOperation operation;
+            synchronized (queue) {
+                operation = queue.poll();
+                if (readPaused && queue.size() <= maxPending / 2) {
+                    readPaused = false;
+                    handler.setReadPaused(false);
+                }
+                if (operation == null) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            if (isExpired(operation) && operation.isSheddable()) {
+                expired.increment();
+                handler.shed(operation, EXPIRED);
+                continue;
+            }
+
+            handler.run(operation);
+        }
+    }
+
+    /**
+     * @return the oldest waiting op that can be dropped, or null if there are none. must hold the queue lock.
+     */
+    private IncomingOperation pollOldestSheddable() {
+        Iterator<IncomingOperation> iter = queue.iterator();
+        while (iter.hasNext()) {
+            IncomingOperation operation = iter.next();
+            if (!operation.isSheddable()) continue;
+            iter.remove();
+            return operation;
+        }
+        return null;
+    }
+
+    private boolean isExpired(IncomingOperation operation) {
+        return System.nanoTime() - operation.receivedAt() - maxAge > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "admitted=" + admitted.sum()
+                + " merged=" + merged.sum()
+                + " expired=" + expired.sum()
+                + " overflowed=" + overflowed.sum()
+                + " rejected=" + rejected.sum();
+    }
+}
@@ -0,0 +1,151 @@
+package io.benwiegand.atvremote.receiver.network.event;
+
+import android.os.SystemClock;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * outbound queue with a FIFO per priority class.
+ * <p>
+ *     the highest class with anything in it goes first, unless a lower class has had something waiting
+ *     without being served for longer than that class's max delay. then the most overdue one gets to send
+ *     one output, so a steady stream of input responses can't starve everything else, and a backlog in a
+ *     lower class only gets a trickle ahead of the higher ones.
+ * </p>
+ * <p>
+ *     any thread can add, but only one thread may take.
+ * </p>
+ */
+public class OutputScheduler {
+
+    public enum Priority {
+        INPUT(0),       // responses to latency-critical input ops
+        CONTROL(10),    // other responses, disconnections
+        STATE(100),     // state events pushed to the remote
+        KEEPALIVE(500); // pings
+
+        // how long the head of this class may be passed over, in milliseconds
+        private final long maxDelay;
+
+        Priority(long maxDelay) {
+            this.maxDelay = maxDelay;
+        }
+    }
+
+    // not a record, removal needs identity equality
+    private static final class Entry {
+        private final QueuedOutput output;
+        private final long enqueuedAt;
+
+        private Entry(QueuedOutput output, long enqueuedAt) {
+            this.output = output;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    @SuppressWarnings("unchecked")
+    private final Queue<Entry>[] queues = new Queue[PRIORITIES.length];
+    private final AtomicInteger[] depths = new AtomicInteger[PRIORITIES.length];
+    private final LongAdder[] sent = new LongAdder[PRIORITIES.length];
+    private final long[] lastServed = new long[PRIORITIES.length];  // taking thread only
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder removed = new LongAdder();
+
+    public OutputScheduler() {
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+            depths[i] = new AtomicInteger();
+            sent[i] = new LongAdder();
+        }
+    }
+
+    public void add(QueuedOutput output, Priority priority) {
+        int i = priority.ordinal();
+        depths[i].incrementAndGet();
+        queues[i].add(new Entry(output, SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * takes the next output. only call this from one thread.
+     * @return the output, or null if everything is empty
+     */
+    public QueuedOutput poll() {
+        int next = -1;
+        long mostOverdue = 0;
+        long now = SystemClock.elapsedRealtime();
+
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            Entry head = queues[i].peek();
+            if (head == null) continue;
+            if (next < 0) {
+                next = i;
+                continue;
+            }
+
+            long overdue = now - Math.max(head.enqueuedAt, lastServed[i]) - PRIORITIES[i].maxDelay;
+            if (overdue > mostOverdue) {
+                mostOverdue = overdue;
+                next = i;
+            }
+        }
+
+        if (next < 0) return null;
+        if (mostOverdue > 0) promoted.increment();
+        lastServed[next] = now;
+        return take(next);
+    }
+
+    private QueuedOutput take(int i) {
+        Entry entry = queues[i].poll();
+        if (entry == null) return null;
+        depths[i].decrementAndGet();
+        sent[i].increment();
+        return entry.output;
+    }
+
+    /**
+     * removes an output if it's still queued
+     * @param output the output
+     * @return true if it was removed
+     */
+    public boolean remove(QueuedOutput output) {
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            for (Entry entry : queues[i]) {
+                if (entry.output != output) continue;
+                if (!queues[i].remove(entry)) return false;  // just got taken
+                depths[i].decrementAndGet();
+                removed.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param priority the class
+     * @return how many outputs of that class are waiting
+     */
+    public int getDepth(Priority priority) {
+        return depths[priority.ordinal()].get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("queued");
+        for (Priority priority : PRIORITIES) {
+            sb.append(String.format(Locale.ROOT, " %s=%d/%d",
+                    priority.name().toLowerCase(Locale.ROOT),
+                    depths[priority.ordinal()].get(),
+                    sent[priority.ordinal()].sum()));
+        }
+        return sb.append(" (waiting/sent) promoted=").append(promoted.sum())
+                .append(" removed=").append(removed.sum())
+                .toString();
+    }
+}
@@ -2,11 +2,41 @@ package io.benwiegand.atvremote.receiver.network.event;
 
 import android.os.SystemClock;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import io.benwiegand.atvremote.receiver.async.SecAdapter;
+import io.benwiegand.atvremote.receiver.async.TimingWheel;
+
+// not a record, it's claimed exactly once, either by the writer or by cancelling it
+public final class QueuedEvent implements QueuedOutput {
+    private final String event;
+    private final SecAdapter<EventResult> adapter;
+    private final long enqueuedAt;
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
 
-public record QueuedEvent(String event, SecAdapter<EventResult> adapter, long enqueuedAt) implements QueuedOutput {
     public QueuedEvent(String event, SecAdapter<EventResult> adapter) {
-        this(event, adapter, SystemClock.elapsedRealtime());
+        this.event = event;
+        this.adapter = adapter;
+        this.enqueuedAt = SystemClock.elapsedRealtime();
+    }
+
+    public String event() {
+        return event;
+    }
+
+    public SecAdapter<EventResult> adapter() {
+        return adapter;
+    }
+
+    public long enqueuedAt() {
+        return enqueuedAt;
+    }
+
+    /**
+     * @return true if this call claimed it, false if it was already written or withdrawn
+     */
+    public boolean claim() {
+        return claimed.compareAndSet(false, true);
     }
 
     @Override
@@ -14,7 +44,7 @@ public record QueuedEvent(String event, SecAdapter<EventResult> adapter, long en
         return Type.EVENT;
     }
 
-    public InFlightEvent toInFlightEvent() {
-        return new InFlightEvent(adapter(), enqueuedAt());
+    public InFlightEvent toInFlightEvent(TimingWheel.Timeout timeout) {
+        return new InFlightEvent(adapter(), enqueuedAt(), System.nanoTime(), timeout);
     }
 }
@@ -1,6 +1,9 @@
 package io.benwiegand.atvremote.receiver.network.event;
 
-public record QueuedResponse(String response) implements QueuedOutput {
+/**
+ * @param binaryFramed true if the event came as a binary operation frame, so the response goes back as a binary response frame
+ */
+public record QueuedResponse(String eventId, boolean binaryFramed, String status, String extra) implements QueuedOutput {
     @Override
     public Type type() {
         return Type.RESPONSE;
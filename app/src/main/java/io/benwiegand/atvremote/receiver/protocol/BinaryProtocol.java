@@ -0,0 +1,176 @@
+package io.benwiegand.atvremote.receiver.protocol;
+
+import static io.benwiegand.atvremote.receiver.protocol.ProtocolConstants.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * binary framing, offered as a feature of v1.
+ * <p>
+ *     the remote opts in by sending "v1 BIN2" as its version line. if the receiver answers
+ *     "OK BIN2", everything after that line is binary in both directions (init included).
+ *     otherwise the connection stays plain v1.
+ * </p>
+ * <p>
+ *     a frame is an unsigned varint length followed by that many bytes. the first byte is the kind:
+ * </p>
+ * <ul>
+ *     <li>LINE: a v1 line in UTF-8. anything without a binary form can still be sent this way.</li>
+ *     <li>OPERATION: varint event id, varint opcode, payload. the payload is either the op's fixed
+ *     binary layout, or the UTF-8 extra (empty meaning no extra).</li>
+ *     <li>RESPONSE: varint event id, status byte, UTF-8 extra.</li>
+ * </ul>
+ */
+public class BinaryProtocol {
+
+    public static final String FEATURE_BINARY_FRAMES = "BIN2";
+
+    // frame kinds
+    public static final byte FRAME_LINE = 0;
+    public static final byte FRAME_OPERATION = 1;
+    public static final byte FRAME_RESPONSE = 2;
+
+    // response statuses
+    public static final byte STATUS_CONFIRM = 0;
+    public static final byte STATUS_ERR = 1;
+    public static final byte STATUS_UNAUTHORIZED = 2;
+    public static final byte STATUS_UNSUPPORTED = 3;
+    private static final String[] STATUSES = { OP_CONFIRM, OP_ERR, OP_UNAUTHORIZED, OP_UNSUPPORTED };
+
+    // opcodes are the index into this. only ever append to it.
+    private static final String[] OPCODES = {
+            OP_PING,
+            OP_META,
+            OP_TRY_PAIRING_CODE,
+
+            OP_DPAD_UP,
+            OP_DPAD_DOWN,
+            OP_DPAD_LEFT,
+            OP_DPAD_RIGHT,
+            OP_DPAD_SELECT,
+            OP_DPAD_LONG_PRESS,
+
+            OP_NAV_HOME,
+            OP_NAV_BACK,
+            OP_NAV_RECENT,
+            OP_NAV_NOTIFICATIONS,
+            OP_NAV_QUICK_SETTINGS,
+
+            OP_VOLUME_UP,
+            OP_VOLUME_DOWN,
+            OP_MUTE_TOGGLE,
+            OP_MUTE,
+            OP_UNMUTE,
+
+            OP_PLAY,
+            OP_PAUSE,
+            OP_PLAY_PAUSE,
+            OP_NEXT_TRACK,
+            OP_PREV_TRACK,
+            OP_SKIP_BACKWARD,
+            OP_SKIP_FORWARD,
+
+            OP_CURSOR_SHOW,
+            OP_CURSOR_HIDE,
+            OP_CURSOR_MOVE,
+            OP_CURSOR_LEFT_BUTTON,
+
+            OP_EXTRA_BUTTON,
+
+            OP_COMMIT_TEXT,
+            OP_DELETE_TEXT,
+            OP_KEY_EVENT,
+            OP_KEYBOARD_DEFAULT_EDITOR_ACTION,
+
+            OP_EVENT_STREAM_SUBSCRIBE,
+            OP_EVENT_STREAM_UNSUBSCRIBE,
+            OP_EVENT_STREAM_EVENT,
+
+            OP_BATCH,
+
+            OP_COMMIT_TEXT_CHUNK,
+            OP_DATAGRAM_OPEN,
+    };
+
+    private static final Map<String, Integer> OPCODE_MAP = new HashMap<>();
+    static {
+        for (int i = 0; i < OPCODES.length; i++) OPCODE_MAP.put(OPCODES[i], i);
+    }
+
+    /**
+     * @param operation the v1 operation name
+     * @return the opcode, or -1 if it doesn't have one
+     */
+    public static int opcodeOf(String operation) {
+        Integer opcode = OPCODE_MAP.get(operation);
+        return opcode == null ? -1 : opcode;
+    }
+
+    /**
+     * @return the number of assigned opcodes
+     */
+    public static int opcodeCount() {
+        return OPCODES.length;
+    }
+
+    /**
+     * @param opcode the opcode
+     * @return the v1 operation name, or null if it isn't assigned
+     */
+    public static String operationOf(long opcode) {
+        if (opcode < 0 || opcode >= OPCODES.length) return null;
+        return OPCODES[(int) opcode];
+    }
+
+    public static byte statusOf(String status) {
+        for (byte i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i].equals(status)) return i;
+        }
+        throw new IllegalArgumentException("no binary status for " + status);
+    }
+
+    public static String statusString(byte status) {
+        if (status < 0 || status >= STATUSES.length) throw new MalformedEventException("unknown response status: " + status);
+        return STATUSES[status];
+    }
+
+    public static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    public static void writeVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) throw new MalformedEventException("truncated varint");
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new MalformedEventException("varint too long");
+    }
+
+    /**
+     * reads the payload of a key event op: one optional byte with the {@link KeyEventType} ordinal
+     * @param payload the payload
+     * @return the type, CLICK if absent
+     */
+    public static KeyEventType readKeyEventType(ByteBuffer payload) {
+        if (!payload.hasRemaining()) return KeyEventType.CLICK;
+        int ordinal = payload.get();
+        if (ordinal < 0 || ordinal >= KeyEventType.values().length)
+            throw new MalformedEventException("unknown key event type: " + ordinal);
+        return KeyEventType.values()[ordinal];
+    }
+}
@@ -0,0 +1,44 @@
+package io.benwiegand.atvremote.receiver.protocol;
+
+/**
+ * the datagram side channel, for input that's better lost than late.
+ * <p>
+ *     over TCP, one lost packet holds up every input after it. so once the remote is set up, it can
+ *     call DATAGRAM_OPEN, which answers with {@link io.benwiegand.atvremote.receiver.protocol.json.DatagramOpenResponse}:
+ *     a udp port, a session id, and a fresh AES-256 key. the key only ever goes over the connection's
+ *     TLS session, so only that remote can send datagrams for it. calling it again replaces the session.
+ * </p>
+ * <p>
+ *     a datagram is the session id (int32) and a sequence number (int64), followed by the body encrypted
+ *     with AES-GCM (128 bit tag). the 12 byte header is the nonce, and is authenticated as well.
+ *     sequence numbers must go up, and must never be reused for a different body. each sequence number
+ *     is accepted once, even out of order, as long as it's within the last 64. so a datagram can be
+ *     sent more than once to make it less likely to be lost.
+ * </p>
+ * <p>
+ *     the body is a kind byte, then:
+ * </p>
+ * <ul>
+ *     <li>CURSOR: int32 x, int32 y. the total cursor movement since the session was opened. only the
+ *     newest total counts (by sequence number, among cursor datagrams), so a lost one is made up for by
+ *     the next, and an older one arriving late is ignored.</li>
+ *     <li>OPERATION: varint opcode, then the op's fixed binary payload (see {@link BinaryProtocol}).
+ *     only self-contained input calls with a binary payload are accepted, like a key CLICK. a key DOWN
+ *     or UP has to go over the connection, since losing the UP would leave the key stuck down.</li>
+ * </ul>
+ * <p>
+ *     nothing is ever sent back, and nothing sent this way is acknowledged. everything that has to
+ *     arrive stays on the connection.
+ * </p>
+ */
+public class DatagramProtocol {
+
+    public static final int HEADER_SIZE = 12;
+    public static final int TAG_SIZE = 16;
+    public static final int KEY_SIZE = 32;
+    public static final int MAX_DATAGRAM_SIZE = 512;
+
+    // body kinds
+    public static final byte KIND_CURSOR = 0;
+    public static final byte KIND_OPERATION = 1;
+}
@@ -1,11 +1,33 @@
 package io.benwiegand.atvremote.receiver.protocol;
 
+import java.nio.ByteBuffer;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+
 import io.benwiegand.atvremote.receiver.stuff.ThrowingConsumer;
 import io.benwiegand.atvremote.receiver.stuff.ThrowingFunction;
 import io.benwiegand.atvremote.receiver.stuff.ThrowingRunnable;
 import io.benwiegand.atvremote.receiver.stuff.ThrowingSupplier;
 
-public record OperationDefinition(String operation, ThrowingFunction<String, String> handler, boolean closeConnectionOnFailure) {
+/**
+ * @param inputLane latency-critical input (dpad, nav, cursor, media). these run in order on a
+ *                  separate high-priority lane, so they never wait behind slow operations.
+ * @param unacknowledged if the remote asked for it, successful calls get no response at all.
+ *                       failures are still reported.
+ * @param binaryHandler optional handler for the op's fixed binary payload (see {@link BinaryProtocol}).
+ *                      without one, binary payloads are decoded as text and go to the normal handler.
+ * @param merger optional, combines the extras of two consecutive calls into the extra of one call with
+ *               the same effect, or returns null if they can't be. only used for input lane ops.
+ * @param binaryMerger the same as merger, for binary payloads
+ * @param sheddable optional, says if a call (by its extra or binary payload) is self-contained, so it can be
+ *                  dropped when input backs up. calls that can be merged always can be. anything else, like
+ *                  the UP half of a key press, always runs, however late.
+ */
+public record OperationDefinition(String operation, ThrowingFunction<String, String> handler, boolean closeConnectionOnFailure, boolean inputLane, boolean unacknowledged, ThrowingFunction<ByteBuffer, String> binaryHandler, BinaryOperator<String> merger, BinaryOperator<ByteBuffer> binaryMerger, BiPredicate<String, ByteBuffer> sheddable) {
+
+    public OperationDefinition(String operation, ThrowingFunction<String, String> handler, boolean closeConnectionOnFailure) {
+        this(operation, handler, closeConnectionOnFailure, false, false, null, null, null, null);
+    }
 
     public OperationDefinition(String operation, ThrowingFunction<String, String> handler) {
         this(operation, handler, false);
@@ -28,4 +50,43 @@ public record OperationDefinition(String operation, ThrowingFunction<String, Str
     public OperationDefinition(String operation, ThrowingSupplier<String> handler) {
         this(operation, e -> handler.get(), false);
     }
+
+    /**
+     * @return a copy of this operation that runs on the input lane
+     */
+    public OperationDefinition onInputLane() {
+        return new OperationDefinition(operation, handler, closeConnectionOnFailure, true, unacknowledged, binaryHandler, merger, binaryMerger, sheddable);
+    }
+
+    /**
+     * @return a copy of this operation that isn't acknowledged when successful
+     */
+    public OperationDefinition asUnacknowledged() {
+        return new OperationDefinition(operation, handler, closeConnectionOnFailure, inputLane, true, binaryHandler, merger, binaryMerger, sheddable);
+    }
+
+    /**
+     * @param binaryHandler handler for the op's fixed binary payload
+     * @return a copy of this operation with the binary handler
+     */
+    public OperationDefinition withBinaryHandler(ThrowingFunction<ByteBuffer, String> binaryHandler) {
+        return new OperationDefinition(operation, handler, closeConnectionOnFailure, inputLane, unacknowledged, binaryHandler, merger, binaryMerger, sheddable);
+    }
+
+    /**
+     * @param merger combines the extras of two consecutive calls, or returns null if it can't
+     * @param binaryMerger combines the binary payloads of two consecutive calls, or returns null if it can't
+     * @return a copy of this operation where consecutive waiting calls can be merged into one
+     */
+    public OperationDefinition mergeable(BinaryOperator<String> merger, BinaryOperator<ByteBuffer> binaryMerger) {
+        return new OperationDefinition(operation, handler, closeConnectionOnFailure, inputLane, unacknowledged, binaryHandler, merger, binaryMerger, sheddable);
+    }
+
+    /**
+     * @param sheddable says if a call is self-contained, given its extra or its binary payload (one of them is null)
+     * @return a copy of this operation where those calls can be dropped when input backs up
+     */
+    public OperationDefinition sheddable(BiPredicate<String, ByteBuffer> sheddable) {
+        return new OperationDefinition(operation, handler, closeConnectionOnFailure, inputLane, unacknowledged, binaryHandler, merger, binaryMerger, sheddable);
+    }
 }
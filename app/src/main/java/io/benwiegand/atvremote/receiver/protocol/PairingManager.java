@@ -4,6 +4,7 @@ import static io.benwiegand.atvremote.receiver.auth.ssl.KeyUtil.getSecureRandom;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Base64;
 import android.util.Log;
 
 import java.security.SecureRandom;
@@ -24,6 +25,8 @@ public class PairingManager implements PairingCallback {
     private static final int TOKEN_MAX_LENGTH = 128;
     private static final String KEY_PAIRED_DEVICES = "devices";
     private static final String KEY_PREFIX_PAIRING_DATA = "pairing_data_";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_REPLACED_FINGERPRINT = "replaced";
 
     private final Object pairingLock = new Object();
     private PairingSession pairingSession = null;
@@ -46,6 +49,32 @@ public class PairingManager implements PairingCallback {
         this.fingerprint = fingerprint;
     }
 
+    /**
+     * remembers that the server certificate was replaced, so the pairing dialog can say so until a
+     * remote pairs against the new one.
+     * @param replacedFingerprint the fingerprint of the old certificate
+     */
+    public void setReplacedFingerprint(byte[] replacedFingerprint) {
+        boolean committed = context.getSharedPreferences(KEY_FINGERPRINT, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_REPLACED_FINGERPRINT, Base64.encodeToString(replacedFingerprint, Base64.NO_WRAP))
+                .commit();
+        if (!committed) Log.e(TAG, "failed to write replaced fingerprint");
+    }
+
+    private byte[] getReplacedFingerprint() {
+        String replaced = context.getSharedPreferences(KEY_FINGERPRINT, Context.MODE_PRIVATE)
+                .getString(KEY_REPLACED_FINGERPRINT, null);
+        return replaced == null ? null : Base64.decode(replaced, Base64.NO_WRAP);
+    }
+
+    private void clearReplacedFingerprint() {
+        context.getSharedPreferences(KEY_FINGERPRINT, Context.MODE_PRIVATE)
+                .edit()
+                .remove(KEY_REPLACED_FINGERPRINT)
+                .apply();
+    }
+
     private void loadPairedDevices() {
         synchronized (tokenMap) {
             Log.d(TAG, "loading token map");
@@ -62,6 +91,12 @@ public class PairingManager implements PairingCallback {
         }
     }
 
+    public boolean hasPairedDevices() {
+        synchronized (tokenMap) {
+            return !tokenMap.isEmpty();
+        }
+    }
+
     private boolean addNewDevice(PairingData data) {
         synchronized (tokenMap) {
             String deviceId = UUID.randomUUID().toString();
@@ -139,6 +174,9 @@ public class PairingManager implements PairingCallback {
                 PairingData data = new PairingData(token, null, null, -1, -1);
                 if (!addNewDevice(data)) return null;
 
+                // someone has seen the new fingerprint now
+                clearReplacedFingerprint();
+
                 return token;
             } catch (RuntimeException e) {
                 try {
@@ -182,7 +220,7 @@ public class PairingManager implements PairingCallback {
 
         if (fingerprint == null) throw new IllegalStateException("fingerprint should be set for a pairing process to initiate");
 
-        PairingDialog dialog = controlScheme.getPairingOverlayOutput().createPairingDialog(this, code, fingerprint);
+        PairingDialog dialog = controlScheme.getPairingOverlayOutput().createPairingDialog(this, code, fingerprint, getReplacedFingerprint());
         dialog.start();
 
         return new PairingSession(dialog, new LinkedList<>(), code, fingerprint);
@@ -12,6 +12,10 @@ public class ProtocolConstants {
     // version
     public static final String VERSION_1 = "v1";
 
+    // optional features, requested after the version ("v1 FEATURE ...") and confirmed the same way ("OK FEATURE ...")
+    // ops declared unacknowledged (listed in the receiver META) only get a response if they fail
+    public static final String FEATURE_UNACKED_OPS = "NOACK";
+
     // responses
     public static final String OP_CONFIRM = "OK";
     public static final String OP_ERR = "ERR";
@@ -22,11 +26,17 @@ public class ProtocolConstants {
     public static final String INIT_OP_PAIR = "PAIR";
     public static final String INIT_OP_CONNECT = "CONN";
 
+    // sent instead of the version line to connect in one round trip: "HELLO {HelloParams}", answered
+    // with "OK {HelloResponse}". receivers that don't know it answer HUH? so the remote can retry with v1.
+    public static final String INIT_OP_HELLO = "HELLO";
+
     // meta
     public static final String OP_META = "META";
 
     // global operations
     public static final String OP_PING = "PING";
+    public static final String OP_BATCH = "BATCH";
+    public static final String OP_DATAGRAM_OPEN = "DATAGRAM_OPEN";  // see DatagramProtocol
 
     // pairing operations
     public static final String OP_TRY_PAIRING_CODE = "IS_THIS_YOUR_CARD?";
@@ -68,6 +78,7 @@ public class ProtocolConstants {
 
     // keyboard
     public static final String OP_COMMIT_TEXT = "TEXT";
+    public static final String OP_COMMIT_TEXT_CHUNK = "TEXT_CHUNK";  // for text too large for one frame
     public static final String OP_DELETE_TEXT = "DEL_TEXT";
     public static final String OP_KEY_EVENT = "KEY";
     public static final String OP_KEYBOARD_DEFAULT_EDITOR_ACTION = "KEYBOARD_ACTION_DEFAULT";
@@ -2,6 +2,7 @@ package io.benwiegand.atvremote.receiver.protocol;
 
 import androidx.annotation.StringRes;
 
+import io.benwiegand.atvremote.receiver.async.Signals;
 import io.benwiegand.atvremote.receiver.ui.ErrorMessageException;
 
 public class RemoteProtocolException extends ErrorMessageException {
@@ -21,4 +22,22 @@ public class RemoteProtocolException extends ErrorMessageException {
     public RemoteProtocolException(@StringRes int stringResMessage, String message, Throwable cause) {
         super(stringResMessage, message, cause);
     }
+
+    private RemoteProtocolException(@StringRes int stringResMessage, String message, boolean writableStackTrace) {
+        super(stringResMessage, message, writableStackTrace);
+    }
+
+    private static final class Signal extends RemoteProtocolException implements Signals.Signal {
+        private Signal(@StringRes int stringResMessage, String message) {
+            super(stringResMessage, message, false);
+        }
+    }
+
+    /**
+     * for routine outcomes, like dropped input. keep it in a constant and reuse it.
+     * @return a stackless exception that can be shared (see {@link Signals})
+     */
+    public static RemoteProtocolException signal(@StringRes int stringResMessage, String message) {
+        return new Signal(stringResMessage, message);
+    }
 }
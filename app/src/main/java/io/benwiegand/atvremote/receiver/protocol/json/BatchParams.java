@@ -0,0 +1,12 @@
+package io.benwiegand.atvremote.receiver.protocol.json;
+
+import java.util.List;
+
+/**
+ * @param operations sub-operations, run in order
+ * @param stopOnError if true, nothing after the first failed sub-operation runs
+ */
+public record BatchParams(List<BatchOperation> operations, boolean stopOnError) {
+    public record BatchOperation(String op, String extra) {
+    }
+}
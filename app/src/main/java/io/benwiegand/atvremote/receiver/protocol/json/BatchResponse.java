@@ -0,0 +1,16 @@
+package io.benwiegand.atvremote.receiver.protocol.json;
+
+import java.util.List;
+
+/**
+ * @param results one per sub-operation that ran, in order
+ */
+public record BatchResponse(List<BatchResult> results) {
+    /**
+     * @param status the status a standalone response would have had (OK, ERR, HUH?)
+     * @param extra the response extra, if any
+     * @param error error details if it failed
+     */
+    public record BatchResult(String status, String extra, ErrorDetails error) {
+    }
+}
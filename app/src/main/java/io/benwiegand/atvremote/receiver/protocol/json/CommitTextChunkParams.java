@@ -0,0 +1,9 @@
+package io.benwiegand.atvremote.receiver.protocol.json;
+
+/**
+ * one piece of text too large to send in one frame. pieces are committed as they arrive, in order.
+ * @param text the piece. it may end in the middle of a surrogate pair.
+ * @param last whether this is the last piece
+ */
+public record CommitTextChunkParams(String text, boolean last) {
+}
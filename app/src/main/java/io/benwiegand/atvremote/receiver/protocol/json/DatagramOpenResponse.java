@@ -0,0 +1,9 @@
+package io.benwiegand.atvremote.receiver.protocol.json;
+
+/**
+ * @param port the udp port to send datagrams to, on the same address as the connection
+ * @param session the session id that goes at the start of each datagram
+ * @param key the AES-256 key, base64
+ */
+public record DatagramOpenResponse(int port, int session, String key) {
+}
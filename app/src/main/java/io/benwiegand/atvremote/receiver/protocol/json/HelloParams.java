@@ -0,0 +1,17 @@
+package io.benwiegand.atvremote.receiver.protocol.json;
+
+import java.util.List;
+
+/**
+ * everything the remote would otherwise send step by step when connecting
+ * @param version protocol version, like the v1 version line
+ * @param features optional features to request, may be null
+ * @param token the auth token from pairing
+ * @param meta the remote's metadata, may be null
+ */
+public record HelloParams(
+        String version,
+        List<String> features,
+        String token,
+        RemoteDeviceMeta meta
+) { }
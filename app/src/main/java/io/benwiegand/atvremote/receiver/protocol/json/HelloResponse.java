@@ -0,0 +1,12 @@
+package io.benwiegand.atvremote.receiver.protocol.json;
+
+import java.util.List;
+
+/**
+ * @param features the requested features which are now in use
+ * @param meta the receiver's metadata, same as the META op
+ */
+public record HelloResponse(
+        List<String> features,
+        ReceiverDeviceMeta meta
+) { }
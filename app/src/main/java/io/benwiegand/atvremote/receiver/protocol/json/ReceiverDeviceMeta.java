@@ -2,14 +2,22 @@ package io.benwiegand.atvremote.receiver.protocol.json;
 
 import android.content.Context;
 
+import java.util.Set;
+
 import io.benwiegand.atvremote.receiver.control.ControlScheme;
 
+/**
+ * @param unackedOperations ops that won't be acknowledged, null unless the remote asked for it
+ * @param maxFrameSize the largest event the receiver accepts, in bytes. larger text has to be sent in chunks.
+ */
 public record ReceiverDeviceMeta(
-    ReceiverCapabilities capabilities
+    ReceiverCapabilities capabilities,
+    Set<String> unackedOperations,
+    int maxFrameSize
 ) {
 
-    public static ReceiverDeviceMeta getDeviceMeta(Context context, ControlScheme controlScheme) {
-        return new ReceiverDeviceMeta(ReceiverCapabilities.getCapabilities(context, controlScheme));
+    public static ReceiverDeviceMeta getDeviceMeta(Context context, ControlScheme controlScheme, Set<String> unackedOperations, int maxFrameSize) {
+        return new ReceiverDeviceMeta(ReceiverCapabilities.getCapabilities(context, controlScheme), unackedOperations, maxFrameSize);
     }
 
 }
@@ -5,9 +5,11 @@ import androidx.annotation.Nullable;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import io.benwiegand.atvremote.receiver.async.CallbackExecutors;
 import io.benwiegand.atvremote.receiver.async.Sec;
 
 /**
@@ -17,15 +19,24 @@ public class ChanneledReplacementLimiter<T, U> implements Limiter<T, U> {
     private final Map<Object, ReplacementLimiter<T, U>> limiterMap = Collections.synchronizedMap(new HashMap<>()); //todo
     private final Function<T, Sec<U>> eventSender;
     private final Callback<T, U> callback;
+    private final Executor callbackExecutor;
 
     public interface Callback<T, U> {
         void onSent(Object channel, T event, boolean more);
         void onFailure(Object channel, T event, Throwable t, @Nullable Supplier<Sec<U>> retry);
     }
 
-    public ChanneledReplacementLimiter(Function<T, Sec<U>> eventSender, Callback<T, U> callback) {
+    /**
+     * @param callbackExecutor where the callback, and sending the next event, runs
+     */
+    public ChanneledReplacementLimiter(Function<T, Sec<U>> eventSender, Callback<T, U> callback, Executor callbackExecutor) {
         this.eventSender = eventSender;
         this.callback = callback;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public ChanneledReplacementLimiter(Function<T, Sec<U>> eventSender, Callback<T, U> callback) {
+        this(eventSender, callback, CallbackExecutors.inline());
     }
 
     /**
@@ -70,7 +81,7 @@ public class ChanneledReplacementLimiter<T, U> implements Limiter<T, U> {
      * @throws IllegalArgumentException if the channel already exists
      */
     public void addChannel(Object channel) {
-        ReplacementLimiter<T, U> limiter = new ReplacementLimiter<>(eventSender, adaptCallback(channel));
+        ReplacementLimiter<T, U> limiter = new ReplacementLimiter<>(eventSender, adaptCallback(channel), callbackExecutor);
         ReplacementLimiter<T, U> existingLimiter = limiterMap.putIfAbsent(channel, limiter);
         if (existingLimiter != null) throw new IllegalArgumentException("channel already exists");
     }
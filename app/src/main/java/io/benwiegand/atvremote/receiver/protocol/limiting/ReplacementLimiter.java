@@ -2,24 +2,33 @@ package io.benwiegand.atvremote.receiver.protocol.limiting;
 
 import androidx.annotation.Nullable;
 
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import io.benwiegand.atvremote.receiver.async.CallbackExecutors;
 import io.benwiegand.atvremote.receiver.async.Sec;
 import io.benwiegand.atvremote.receiver.async.SecAdapter;
+import io.benwiegand.atvremote.receiver.async.Signals;
 import io.benwiegand.atvremote.receiver.stuff.SerialInt;
 
 /**
  * limits by skipping all events which are submitted while an event is sending, except for the latest event.
  * You could think of it like a queue with max 1 element, and overflowing the queue overwrites that element.
+ * <p>
+ *     the event that's sending is cancelled when a newer one comes in, so if it's still waiting to be
+ *     written it's replaced too, instead of going out stale.
+ * </p>
  */
 public class ReplacementLimiter<T, U> implements Limiter<T, U> {
     private final Object lock = new Object();
     private final Function<T, Sec<U>> eventSender;
     private final Callback<T, U> callback;
+    private final Executor callbackExecutor;
     private T latestEvent = null;
     private SecAdapter<U> latestEventAdapter = null;
     private boolean sending = false;
+    private Sec<U> sendingSec = null;
     private final SerialInt serial = new SerialInt();
 
     public interface Callback<T, U> {
@@ -27,28 +36,47 @@ public class ReplacementLimiter<T, U> implements Limiter<T, U> {
         void onFailure(T event, Throwable t, @Nullable Supplier<Sec<U>> retry);
     }
 
-    public static class ReplacedException extends Exception {
+    /**
+     * a signal (see {@link Signals}), so it has no stack trace
+     */
+    public static class ReplacedException extends Exception implements Signals.Signal {
         public ReplacedException() {
-            super();
+            super("replaced by a newer event", null, false, false);
         }
     }
 
-    public ReplacementLimiter(Function<T, Sec<U>> eventSender, Callback<T, U> callback) {
+    // this happens several times a second for media position, so it's shared
+    private static final ReplacedException REPLACED = new ReplacedException();
+
+    /**
+     * @param callbackExecutor where the callback, and sending the next event, runs
+     */
+    public ReplacementLimiter(Function<T, Sec<U>> eventSender, Callback<T, U> callback, Executor callbackExecutor) {
         this.eventSender = eventSender;
         this.callback = callback;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public ReplacementLimiter(Function<T, Sec<U>> eventSender, Callback<T, U> callback) {
+        this(eventSender, callback, CallbackExecutors.inline());
     }
 
     private Sec<U> sendLocked(T event) {
         SecAdapter.SecWithAdapter<U> secWithAdapter = SecAdapter.createThreadless();
 
         if (latestEventAdapter != null) {
-            latestEventAdapter.throwError(new ReplacedException());
+            latestEventAdapter.throwError(REPLACED);
         }
 
         latestEventAdapter = secWithAdapter.secAdapter();
         latestEvent = event;
         serial.advance();
-        if (!sending) sendLatestLocked();
+        if (!sending) {
+            sendLatestLocked();
+        } else if (sendingSec != null) {
+            // if it's too late this does nothing, and the new event waits its turn
+            sendingSec.cancel();
+        }
 
         return secWithAdapter.sec();
     }
@@ -62,7 +90,10 @@ public class ReplacementLimiter<T, U> implements Limiter<T, U> {
 
     private void sendLatestLocked() {
         sending = latestEventAdapter != null;
-        if (!sending) return;
+        if (!sending) {
+            sendingSec = null;
+            return;
+        }
         assert latestEvent != null;
 
         SecAdapter<U> eventAdapter = latestEventAdapter;
@@ -72,7 +103,9 @@ public class ReplacementLimiter<T, U> implements Limiter<T, U> {
         latestEventAdapter = null;
         latestEvent = null;
 
-        eventSender.apply(event)
+        Sec<U> sec = eventSender.apply(event);
+        sendingSec = sec;
+        sec.callbacksOn(callbackExecutor)
                 .doOnResult(r -> {
                     eventAdapter.provideResult(r);
                     synchronized (lock) {
@@ -81,11 +114,20 @@ public class ReplacementLimiter<T, U> implements Limiter<T, U> {
                     }
                 })
                 .doOnError(t -> {
+                    if (sec.isCancelled()) {
+                        // taken back before it was written
+                        eventAdapter.throwError(REPLACED);
+                        synchronized (lock) {
+                            sendLatestLocked();
+                        }
+                        return;
+                    }
+
                     eventAdapter.throwError(t);
                     Supplier<Sec<U>> retry = () -> {
                         synchronized (lock) {
                             if (!serial.isValid(eventSerial))
-                                return Sec.premeditatedError(new ReplacedException());
+                                return Sec.premeditatedError(REPLACED);
 
                             assert !sending;
                             return sendLocked(event);
@@ -15,6 +15,7 @@ import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import io.benwiegand.atvremote.receiver.async.CallbackExecutors;
 import io.benwiegand.atvremote.receiver.async.Sec;
 import io.benwiegand.atvremote.receiver.protocol.limiting.ChanneledReplacementLimiter;
 
@@ -126,7 +127,7 @@ public class OutgoingStateEventStream implements OutgoingEventStream {
             public void onFailure(Object channel, String event, Throwable t, @Nullable Supplier<Sec<Void>> retry) {
                 Log.e(TAG, "event failed to send to connection '" + connectionUUID + "'", t);
             }
-        });
+        }, CallbackExecutors.newLane());    // per subscription, so one slow connection doesn't hold up the others
     }
 
     @Override
@@ -0,0 +1,66 @@
+package io.benwiegand.atvremote.receiver.stuff;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free latency histogram with power-of-two microsecond buckets.
+ * percentiles are reported as the upper bound of the bucket they land in, so they're at most 2x off.
+ */
+public class LatencyHistogram {
+    // bucket i holds samples under 2^i us, the last one holds everything else (~67 s and up)
+    private static final int BUCKET_COUNT = 27;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long micros = nanos / 1000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the upper bound of the bucket containing that percentile, in microseconds
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = count.get();
+        if (total == 0) return 0;
+
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) return Math.min(1L << i, getMaxMicros());
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "n=%d p50=%.1fms p99=%.1fms max=%.1fms",
+                getCount(),
+                getPercentileMicros(0.5) / 1000.0,
+                getPercentileMicros(0.99) / 1000.0,
+                getMaxMicros() / 1000.0);
+    }
+}
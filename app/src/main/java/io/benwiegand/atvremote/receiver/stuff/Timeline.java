@@ -0,0 +1,107 @@
+package io.benwiegand.atvremote.receiver.stuff;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * records named steps and points in time, relative to when the timeline was created
+ */
+public class Timeline {
+
+    /**
+     * @param start time the step started, in milliseconds since the timeline was created
+     * @param end time the step finished, or -1 if it hasn't. the same as start for marks.
+     * @param mark whether this is a point in time instead of a step
+     */
+    public record Entry(String name, long start, long end, boolean failed, boolean mark) {
+        @Override
+        public String toString() {
+            if (mark) return name + " @" + start;
+            if (end < 0) return name + " @" + start + " (running)";
+            return name + " @" + start + "+" + (end - start) + (failed ? " (failed)" : "");
+        }
+    }
+
+    private final LongSupplier clock;
+    private final long startTime;
+    private final List<Entry> entries = new ArrayList<>();
+
+    public Timeline() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clock the time in milliseconds, for tests
+     */
+    Timeline(LongSupplier clock) {
+        this.clock = clock;
+        startTime = clock.getAsLong();
+    }
+
+    /**
+     * records a point in time
+     * @param name the name
+     * @return the entry
+     */
+    public Entry mark(String name) {
+        long now = elapsed();
+        Entry entry = new Entry(name, now, now, false, true);
+        synchronized (entries) {
+            entries.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * records the start of a step
+     * @param name the name
+     * @return a handle for {@link #end(int, boolean)}
+     */
+    public int begin(String name) {
+        synchronized (entries) {
+            entries.add(new Entry(name, elapsed(), -1, false, false));
+            return entries.size() - 1;
+        }
+    }
+
+    /**
+     * records the end of a step
+     * @param step the handle from {@link #begin(String)}
+     * @param failed whether the step failed
+     * @return the finished entry
+     */
+    public Entry end(int step, boolean failed) {
+        synchronized (entries) {
+            Entry started = entries.get(step);
+            Entry entry = new Entry(started.name(), started.start(), elapsed(), failed, false);
+            entries.set(step, entry);
+            return entry;
+        }
+    }
+
+    /**
+     * @return milliseconds since the timeline was created
+     */
+    public long elapsed() {
+        return clock.getAsLong() - startTime;
+    }
+
+    public List<Entry> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : getEntries()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(entry);
+        }
+        return sb.append(" (ms)").toString();
+    }
+}
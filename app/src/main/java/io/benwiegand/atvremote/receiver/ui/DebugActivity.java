@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.UUID;
 
 import io.benwiegand.atvremote.receiver.R;
+import io.benwiegand.atvremote.receiver.async.CallbackExecutors;
 import io.benwiegand.atvremote.receiver.control.AccessibilityInputService;
 import io.benwiegand.atvremote.receiver.control.IMEInputService;
 import io.benwiegand.atvremote.receiver.control.NotificationInputService;
@@ -140,6 +141,28 @@ public class DebugActivity extends AppCompatActivity {
                         .append("port: ")
                             .append(serverBinder.getPort())
                             .append("\n")
+                        .append("startup: ")
+                            .append(serverBinder.getStartupTimeline())
+                            .append("\n")
+                        .append("handshakes: queued=")
+                            .append(serverBinder.getAcceptQueueDepth())
+                            .append(" active=")
+                            .append(serverBinder.getActiveHandshakes())
+                            .append(" ")
+                            .append(serverBinder.getHandshakeStats())
+                            .append("\n")
+                        .append("workers: ")
+                            .append(serverBinder.getWorkerPoolStats())
+                            .append("\n")
+                        .append("callbacks: ")
+                            .append(CallbackExecutors.getStats())
+                            .append("\n")
+                        .append("event timeouts: ")
+                            .append(serverBinder.getTimeoutStats())
+                            .append("\n")
+                        .append("datagrams: ")
+                            .append(serverBinder.getDatagramSideChannel())
+                            .append("\n")
                         .append("connections (")
                             .append(serverBinder.getConnections().size())
                             .append("):\n");
@@ -151,6 +174,24 @@ public class DebugActivity extends AppCompatActivity {
                         .append(entry.getValue().getRemoteAddress())
                         .append(" - dead = ")
                         .append(entry.getValue().isDead())
+                        .append("\n   - ")
+                        .append(entry.getValue().getHandshakeInfo())
+                        .append("\n   - setup: ")
+                        .append(entry.getValue().getSetupTimeline())
+                        .append("\n   - ")
+                        .append(entry.getValue().getWireStats())
+                        .append(" ")
+                        .append(entry.getValue().getRtt())
+                        .append(" backlog=")
+                        .append(entry.getValue().getOperationBacklog())
+                        .append("\n   - ")
+                        .append(entry.getValue().getLaneLatencySummary())
+                        .append("\n   - ")
+                        .append(entry.getValue().getOutputQueue())
+                        .append("\n   - input ")
+                        .append(entry.getValue().getInputAdmission())
+                        .append("\n   - datagram ")
+                        .append(entry.getValue().getDatagramSession())
                         .append("\n");
 
             }
@@ -27,6 +27,14 @@ public class ErrorMessageException extends RuntimeException {
         this.stringResMessage = stringResMessage;
     }
 
+    /**
+     * without a stack trace or suppressed exceptions, so it can be shared
+     */
+    protected ErrorMessageException(@StringRes int stringResMessage, String message, boolean writableStackTrace) {
+        super(message, null, writableStackTrace, writableStackTrace);
+        this.stringResMessage = stringResMessage;
+    }
+
     @Nullable
     @StringRes
     public Integer getStringResMessage() {
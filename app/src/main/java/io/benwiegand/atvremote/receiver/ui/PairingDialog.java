@@ -3,6 +3,7 @@ package io.benwiegand.atvremote.receiver.ui;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.PixelFormat;
+import android.view.View;
 import android.view.WindowManager;
 import android.widget.TextView;
 
@@ -18,9 +19,14 @@ public class PairingDialog extends MakeshiftActivity {
     private final PairingCallback callback;
     private final int pairingCode;
     private final byte[] fingerprint;
+    private final byte[] replacedFingerprint;
 
+    /**
+     * @param replacedFingerprint the fingerprint before the certificate was replaced, to warn remotes paired
+     *                            against it, or null
+     */
     @SuppressLint("InflateParams")
-    public PairingDialog(Context context, PairingCallback callback, int pairingCode, byte[] fingerprint) {
+    public PairingDialog(Context context, PairingCallback callback, int pairingCode, byte[] fingerprint, byte[] replacedFingerprint) {
         // todo: use system overlay if system app
         super(context, R.layout.layout_pairing, new WindowManager.LayoutParams(WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY, 0, PixelFormat.TRANSLUCENT));
 
@@ -28,6 +34,7 @@ public class PairingDialog extends MakeshiftActivity {
 
         this.pairingCode = pairingCode;
         this.fingerprint = fingerprint;
+        this.replacedFingerprint = replacedFingerprint;
         this.callback = callback;
 
         runOnUiThread(() -> {
@@ -51,6 +58,12 @@ public class PairingDialog extends MakeshiftActivity {
         TextView fingerprintElevatedText = root.findViewById(R.id.certificate_fingerprint_elevated_text);
         fingerprintElevatedText.setText("70 D0"); // todo
 
+        if (replacedFingerprint != null) {
+            TextView replacedFingerprintText = root.findViewById(R.id.replaced_fingerprint_text);
+            replacedFingerprintText.setText(root.getContext().getString(R.string.label_pairing_popup_replaced_fingerprint, ByteUtil.hexOf(replacedFingerprint)));
+            replacedFingerprintText.setVisibility(View.VISIBLE);
+        }
+
         // pad pairing code with leading 0s
         StringBuilder pairingCodeString = new StringBuilder(String.valueOf(pairingCode));
         while (pairingCodeString.length() < 6)
@@ -0,0 +1,79 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * bytes allocated and time taken per completion, for the chain a pushed stream event goes through
+ * (two maps, then callbacks). CompletableFuture stands in for a chain that makes a new stage object
+ * per map, like Sec did before. the numbers are printed, only that fusing allocates less is asserted.
+ */
+public class SecAllocationBenchmarkTest {
+    private static final int WARMUP = 50000;
+    private static final int OPS = 200000;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final Consumer<Throwable> ERROR_SINK = t -> fail();
+
+    private static void bareSec() {
+        SecAdapter.SecWithAdapter<String> s = SecAdapter.createThreadless();
+        s.sec().doOnResult(r -> {}).doOnError(ERROR_SINK).callMeWhenDone();
+        s.secAdapter().provideResult("a");
+    }
+
+    private static void fusedChain() {
+        SecAdapter.SecWithAdapter<String> s = SecAdapter.createThreadless();
+        s.sec()
+                .map(String::length)
+                .map(r -> (Void) null)
+                .doOnResult(r -> {})
+                .doOnError(ERROR_SINK)
+                .callMeWhenDone();
+        s.secAdapter().provideResult("a");
+    }
+
+    private static void stagePerMap() {
+        CompletableFuture<String> f = new CompletableFuture<>();
+        f.thenApply(String::length)
+                .thenApply(r -> (Void) null)
+                .whenComplete((r, t) -> {});
+        f.complete("a");
+    }
+
+    /**
+     * @return bytes allocated per op
+     */
+    private static double measure(String name, Runnable op) {
+        for (int i = 0; i < WARMUP; i++) op.run();
+
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) op.run();
+        long elapsed = System.nanoTime() - start;
+        double bytes = (double) (THREADS.getThreadAllocatedBytes(thread) - bytesBefore) / OPS;
+
+        System.out.printf(Locale.ROOT, "%-24s %6.1f bytes/op  %6.1f ns/op%n", name, bytes, (double) elapsed / OPS);
+        return bytes;
+    }
+
+    @Test
+    public void allocationsPerCompletion() {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        double bare = measure("sec, no maps", SecAllocationBenchmarkTest::bareSec);
+        double fused = measure("sec, 2 fused maps", SecAllocationBenchmarkTest::fusedChain);
+        double perStage = measure("stage per map", SecAllocationBenchmarkTest::stagePerMap);
+
+        assertTrue("fused maps should cost less than a stage per map", fused - bare < perStage - bare);
+    }
+}
@@ -0,0 +1,625 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+public class SecTest {
+
+    private static <T> SecAdapter.SecWithAdapter<T> create() {
+        return SecAdapter.createThreadless();
+    }
+
+    private static LongSupplier clock() {
+        long start = System.nanoTime();
+        return () -> (System.nanoTime() - start) / 1000000;
+    }
+
+    @Test
+    public void resultBeforeCallbacks() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        s.secAdapter().provideResult("a");
+
+        List<String> results = new ArrayList<>();
+        s.sec().doOnResult(results::add).doOnError(t -> fail()).callMeWhenDone();
+        assertEquals(List.of("a"), results);
+    }
+
+    @Test
+    public void resultAfterCallbacks() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        List<String> results = new ArrayList<>();
+        s.sec().doOnResult(results::add).doOnError(t -> fail()).callMeWhenDone();
+        assertTrue(results.isEmpty());
+
+        s.secAdapter().provideResult("a");
+        assertEquals(List.of("a"), results);
+    }
+
+    @Test
+    public void error() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        IOException e = new IOException("x");
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        s.sec().doOnResult(r -> fail()).doOnError(error::set).callMeWhenDone();
+
+        s.secAdapter().throwError(e);
+        assertSame(e, error.get());
+    }
+
+    @Test
+    public void onlyFinishesOnce() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        s.secAdapter().provideResult("a");
+        assertThrows(IllegalStateException.class, () -> s.secAdapter().provideResult("b"));
+        assertThrows(IllegalStateException.class, () -> s.secAdapter().throwError(new IOException()));
+        assertEquals("a", s.sec().getResult());
+    }
+
+    @Test
+    public void callMeWhenDoneOnlyOnce() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        s.sec().callMeWhenDone();
+        assertThrows(IllegalStateException.class, () -> s.sec().callMeWhenDone());
+        assertThrows(IllegalStateException.class, () -> s.sec().doOnResult(r -> {}));
+    }
+
+    @Test
+    public void gettersBeforeFinishing() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        assertFalse(s.sec().isFinished());
+        assertThrows(IllegalStateException.class, () -> s.sec().getResult());
+
+        s.secAdapter().provideResult("a");
+        assertTrue(s.sec().isFinished());
+        assertTrue(s.sec().isSuccessful());
+        assertNull(s.sec().getError());
+    }
+
+    @Test
+    public void mapStagesRunInOrder() {
+        SecAdapter.SecWithAdapter<Integer> s = create();
+        Sec<String> mapped = s.sec()
+                .map(i -> i + 1)
+                .map(i -> i * 10)
+                .map(i -> "=" + i);
+
+        // map stages go on the same Sec
+        assertSame(s.sec(), mapped);
+
+        AtomicReference<String> result = new AtomicReference<>();
+        mapped.doOnResult(result::set).callMeWhenDone();
+        s.secAdapter().provideResult(1);
+        assertEquals("=20", result.get());
+    }
+
+    @Test
+    public void mapAfterGetterStillApplies() {
+        SecAdapter.SecWithAdapter<Integer> s = create();
+        s.secAdapter().provideResult(1);
+        assertEquals(Integer.valueOf(1), s.sec().getResult());
+
+        assertEquals(Integer.valueOf(2), s.sec().map(i -> i + 1).getResult());
+    }
+
+    @Test
+    public void mapIsSeenThroughTheOriginalReference() {
+        SecAdapter.SecWithAdapter<Integer> s = create();
+        Sec<Integer> original = s.sec();
+        Sec<Integer> mapped = original.map(i -> i + 1);
+        assertSame(original, mapped);
+
+        s.secAdapter().provideResult(1);
+        assertEquals(Integer.valueOf(2), original.getResult());
+    }
+
+    @Test
+    public void mapErrorIsSeenThroughTheOriginalReference() {
+        SecAdapter.SecWithAdapter<Integer> s = create();
+        IOException wrapped = new IOException("wrapped");
+        Sec<Integer> original = s.sec();
+        assertSame(original, original.mapError(t -> wrapped));
+
+        s.secAdapter().throwError(new IllegalStateException());
+        assertSame(wrapped, original.getError());
+    }
+
+    @Test
+    public void mapErrorOnlySeesErrors() {
+        SecAdapter.SecWithAdapter<Integer> s = create();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        s.sec()
+                .map(i -> { throw new IllegalArgumentException("bad"); })
+                .map(i -> {
+                    fail();
+                    return i;
+                })
+                .mapError(t -> new IOException("wrapped", t))
+                .doOnResult(r -> fail())
+                .doOnError(error::set)
+                .callMeWhenDone();
+
+        s.secAdapter().provideResult(1);
+        assertTrue(error.get() instanceof IOException);
+        assertTrue(error.get().getCause() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void callbacksRunExactlyOnceUnderContention() throws InterruptedException {
+        for (int round = 0; round < 1000; round++) {
+            SecAdapter.SecWithAdapter<Integer> s = create();
+            AtomicInteger calls = new AtomicInteger();
+            s.sec().map(i -> i + 1).doOnResult(r -> calls.incrementAndGet());
+
+            CountDownLatch start = new CountDownLatch(1);
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                s.secAdapter().provideResult(0);
+            });
+            producer.start();
+            start.countDown();
+            s.sec().callMeWhenDone();
+            producer.join();
+
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void callbacksOnExecutor() {
+        List<Runnable> tasks = new ArrayList<>();
+        SecAdapter.SecWithAdapter<String> s = create();
+        AtomicReference<String> result = new AtomicReference<>();
+        s.sec().callbacksOn(tasks::add).doOnResult(result::set).callMeWhenDone();
+
+        s.secAdapter().provideResult("a");
+        assertNull(result.get());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertEquals("a", result.get());
+    }
+
+    @Test
+    public void premeditatedError() {
+        IOException e = new IOException();
+        Sec<String> sec = Sec.premeditatedError(e);
+        assertTrue(sec.isFinished());
+        assertSame(e, sec.getError());
+    }
+
+    @Test
+    public void flatMapChainsSteps() {
+        SecAdapter.SecWithAdapter<Integer> first = create();
+        SecAdapter.SecWithAdapter<String> second = create();
+        AtomicReference<Integer> input = new AtomicReference<>();
+        AtomicReference<String> result = new AtomicReference<>();
+
+        first.sec()
+                .flatMap(i -> {
+                    input.set(i);
+                    return second.sec();
+                })
+                .doOnResult(result::set)
+                .doOnError(t -> fail())
+                .callMeWhenDone();
+
+        first.secAdapter().provideResult(1);
+        assertEquals(Integer.valueOf(1), input.get());
+        assertNull(result.get());
+
+        second.secAdapter().provideResult("done");
+        assertEquals("done", result.get());
+    }
+
+    @Test
+    public void flatMapSkipsNextStepOnError() {
+        SecAdapter.SecWithAdapter<Integer> first = create();
+        IOException e = new IOException();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        first.sec()
+                .<String>flatMap(i -> {
+                    fail();
+                    return null;
+                })
+                .doOnError(error::set)
+                .callMeWhenDone();
+
+        first.secAdapter().throwError(e);
+        assertSame(e, error.get());
+    }
+
+    @Test
+    public void flatMapFailsIfNextStepThrows() {
+        SecAdapter.SecWithAdapter<Integer> first = create();
+        IllegalStateException e = new IllegalStateException();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        first.sec()
+                .<String>flatMap(i -> {
+                    throw e;
+                })
+                .doOnError(error::set)
+                .callMeWhenDone();
+
+        first.secAdapter().provideResult(1);
+        assertSame(e, error.get());
+    }
+
+    @Test
+    public void flatMapKeepsCallbackExecutorForTheEnd() {
+        List<Runnable> tasks = new ArrayList<>();
+        SecAdapter.SecWithAdapter<Integer> first = create();
+        SecAdapter.SecWithAdapter<String> second = create();
+        AtomicReference<String> result = new AtomicReference<>();
+
+        first.sec()
+                .callbacksOn(tasks::add)
+                .flatMap(i -> second.sec())
+                .doOnResult(result::set)
+                .callMeWhenDone();
+
+        // the step in between doesn't hop
+        first.secAdapter().provideResult(1);
+        assertTrue(tasks.isEmpty());
+
+        second.secAdapter().provideResult("done");
+        assertEquals(1, tasks.size());
+        assertNull(result.get());
+        tasks.get(0).run();
+        assertEquals("done", result.get());
+    }
+
+    @Test
+    public void allKeepsOrder() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        AtomicReference<List<String>> result = new AtomicReference<>();
+        Sec.all(List.of(a.sec(), b.sec())).doOnResult(result::set).callMeWhenDone();
+
+        b.secAdapter().provideResult("b");
+        assertNull(result.get());
+        a.secAdapter().provideResult("a");
+        assertEquals(List.of("a", "b"), result.get());
+    }
+
+    @Test
+    public void allOfNothing() {
+        assertEquals(List.of(), Sec.all(List.<Sec<String>>of()).getResult());
+    }
+
+    @Test
+    public void allFailsOnFirstErrorAndCancelsTheRest() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        IOException e = new IOException();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Sec.all(List.of(a.sec(), b.sec())).doOnError(error::set).callMeWhenDone();
+
+        a.secAdapter().throwError(e);
+        assertSame(e, error.get());
+        assertTrue(b.sec().isCancelled());
+    }
+
+    @Test
+    public void anyTakesFirstResultAndCancelsTheRest() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        AtomicReference<String> result = new AtomicReference<>();
+        Sec.any(List.of(a.sec(), b.sec())).doOnResult(result::set).callMeWhenDone();
+
+        b.secAdapter().provideResult("b");
+        assertEquals("b", result.get());
+        assertTrue(a.sec().isCancelled());
+    }
+
+    @Test
+    public void anyFailsOnlyIfAllFail() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        IOException first = new IOException("first");
+        IOException second = new IOException("second");
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Sec.any(List.of(a.sec(), b.sec())).doOnError(error::set).callMeWhenDone();
+
+        a.secAdapter().throwError(first);
+        assertNull(error.get());
+        b.secAdapter().throwError(second);
+        assertSame(first, error.get());
+        assertArrayEquals(new Throwable[] {second}, first.getSuppressed());
+    }
+
+    @Test
+    public void anyDoesntAddSuppressedToSignals() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Sec.any(List.of(a.sec(), b.sec())).doOnError(error::set).callMeWhenDone();
+
+        a.secAdapter().throwError(Signals.CONNECTION_CLOSED);
+        b.secAdapter().throwError(new IOException());
+        assertSame(Signals.CONNECTION_CLOSED, error.get());
+        assertEquals(0, Signals.CONNECTION_CLOSED.getSuppressed().length);
+    }
+
+    @Test
+    public void allFailsIfAnInputIsCancelled() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Sec.all(List.of(a.sec(), b.sec())).doOnError(error::set).callMeWhenDone();
+
+        assertTrue(a.sec().cancel());
+        assertSame(Signals.CANCELLED, error.get());
+        assertTrue(b.sec().isCancelled());
+    }
+
+    @Test
+    public void cantCancelAllAfterItFinishes() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        Sec<List<String>> combined = Sec.all(List.of(a.sec()));
+        combined.callMeWhenDone();
+
+        a.secAdapter().provideResult("a");
+        assertFalse(combined.cancel());
+        assertFalse(a.sec().isCancelled());
+    }
+
+    @Test
+    public void anyTakesResultAfterAnError() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        AtomicReference<String> result = new AtomicReference<>();
+        Sec.any(List.of(a.sec(), b.sec())).doOnResult(result::set).doOnError(t -> fail()).callMeWhenDone();
+
+        a.secAdapter().throwError(new IOException());
+        b.secAdapter().provideResult("b");
+        assertEquals("b", result.get());
+    }
+
+    @Test
+    public void anyOfNothing() {
+        assertTrue(Sec.any(List.<Sec<String>>of()).getError() instanceof NoSuchElementException);
+    }
+
+    @Test
+    public void cancelGoesUpstreamThroughAny() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Sec<String> combined = Sec.any(List.of(a.sec(), b.sec()));
+        combined.doOnError(error::set).callMeWhenDone();
+
+        // one failing doesn't finish it, so there's still something to cancel
+        a.secAdapter().throwError(new IOException());
+        assertTrue(combined.cancel());
+        assertSame(Signals.CANCELLED, error.get());
+        assertTrue(b.sec().isCancelled());
+    }
+
+    @Test
+    public void observeOnDeliversOnExecutor() {
+        List<Runnable> tasks = new ArrayList<>();
+        SecAdapter.SecWithAdapter<String> s = create();
+        AtomicReference<String> result = new AtomicReference<>();
+        s.sec().observeOn(tasks::add).map(r -> r + "!").doOnResult(result::set).callMeWhenDone();
+
+        s.secAdapter().provideResult("a");
+        assertNull(result.get());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertEquals("a!", result.get());
+    }
+
+    @Test
+    public void cancelFinishesWithSignal() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        s.sec().doOnResult(r -> fail()).doOnError(error::set).callMeWhenDone();
+
+        assertTrue(s.sec().cancel());
+        assertTrue(s.sec().isCancelled());
+        assertSame(Signals.CANCELLED, error.get());
+
+        // whatever the producer provides after is dropped
+        s.secAdapter().provideResult("late");
+        assertFalse(s.sec().cancel());
+    }
+
+    @Test
+    public void cantCancelAfterFinishing() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        s.secAdapter().provideResult("a");
+        assertFalse(s.sec().cancel());
+        assertFalse(s.sec().isCancelled());
+        assertEquals("a", s.sec().getResult());
+    }
+
+    @Test
+    public void cancellerStopsTheWork() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        AtomicInteger calls = new AtomicInteger();
+        s.secAdapter().setCanceller(() -> {
+            calls.incrementAndGet();
+            return true;
+        });
+
+        assertTrue(s.sec().cancel());
+        assertFalse(s.sec().cancel());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void cancellerCanRefuse() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        s.secAdapter().setCanceller(() -> false);
+
+        assertFalse(s.sec().cancel());
+        assertFalse(s.sec().isCancelled());
+
+        // too late to stop, so the result still arrives
+        s.secAdapter().provideResult("a");
+        assertEquals("a", s.sec().getResult());
+    }
+
+    @Test
+    public void cancellerSetAfterCancelIsCalled() {
+        SecAdapter.SecWithAdapter<String> s = create();
+        assertTrue(s.sec().cancel());
+
+        AtomicInteger calls = new AtomicInteger();
+        s.secAdapter().setCanceller(() -> {
+            calls.incrementAndGet();
+            return true;
+        });
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void cancellerRacingCancelIsCalled() throws InterruptedException {
+        for (int round = 0; round < 1000; round++) {
+            SecAdapter.SecWithAdapter<String> s = create();
+            AtomicInteger calls = new AtomicInteger();
+
+            CountDownLatch start = new CountDownLatch(1);
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                s.secAdapter().setCanceller(() -> {
+                    calls.incrementAndGet();
+                    return true;
+                });
+            });
+            producer.start();
+            start.countDown();
+            assertTrue(s.sec().cancel());
+            producer.join();
+
+            // whichever side got there first, the work is told to stop exactly once
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void cancelGoesUpstreamThroughFlatMap() {
+        SecAdapter.SecWithAdapter<Integer> first = create();
+        SecAdapter.SecWithAdapter<String> second = create();
+        Sec<String> chained = first.sec().flatMap(i -> second.sec());
+        chained.callMeWhenDone();
+
+        // before the first step finishes, it's the one cancelled
+        assertTrue(chained.cancel());
+        assertTrue(first.sec().isCancelled());
+        assertFalse(second.sec().isCancelled());
+    }
+
+    @Test
+    public void cancelReachesCurrentFlatMapStep() {
+        SecAdapter.SecWithAdapter<Integer> first = create();
+        SecAdapter.SecWithAdapter<String> second = create();
+        Sec<String> chained = first.sec().flatMap(i -> second.sec());
+        chained.callMeWhenDone();
+
+        first.secAdapter().provideResult(1);
+        assertTrue(chained.cancel());
+        assertTrue(second.sec().isCancelled());
+    }
+
+    @Test
+    public void cancelGoesUpstreamThroughAllAndObserveOn() {
+        SecAdapter.SecWithAdapter<String> a = create();
+        SecAdapter.SecWithAdapter<String> b = create();
+        Sec<List<String>> combined = Sec.all(List.of(a.sec(), b.sec())).observeOn(Runnable::run);
+        combined.callMeWhenDone();
+
+        assertTrue(combined.cancel());
+        assertTrue(a.sec().isCancelled());
+        assertTrue(b.sec().isCancelled());
+    }
+
+    @Test
+    public void timeoutFiresOnTheWheelAndCancelsUpstream() throws InterruptedException {
+        LongSupplier clock = clock();
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock);
+        SecAdapter.SecWithAdapter<String> s = create();
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        long[] failedAt = new long[1];
+        s.secAdapter().setCanceller(() -> {
+            stopped.countDown();
+            return true;
+        });
+
+        long scheduledAt = clock.getAsLong();
+        s.sec().timeout(250, wheel)
+                .doOnResult(r -> fail())
+                .doOnError(t -> {
+                    failedAt[0] = clock.getAsLong();
+                    error.set(t);
+                    latch.countDown();
+                })
+                .callMeWhenDone();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(error.get() instanceof TimeoutException);
+
+        // upstream is cancelled right after, so the producer is told to stop
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+
+        // not early, and no later than the wheel's precision (plus some slack for a slow machine)
+        long elapsed = failedAt[0] - scheduledAt;
+        assertTrue("fired early: " + elapsed, elapsed >= 250);
+        assertTrue("fired late: " + elapsed, elapsed < 250 + 1000);
+
+        // the producer being late doesn't change anything
+        s.secAdapter().provideResult("late");
+        assertEquals(1, wheel.getStats().expired());
+    }
+
+    @Test
+    public void timeoutStopsWhenUpstreamFinishes() {
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock());
+        SecAdapter.SecWithAdapter<String> s = create();
+        AtomicReference<String> result = new AtomicReference<>();
+        s.sec().timeout(60000, wheel).doOnResult(result::set).doOnError(t -> fail()).callMeWhenDone();
+
+        s.secAdapter().provideResult("a");
+        assertEquals("a", result.get());
+        assertEquals(0, wheel.getStats().pending());
+        assertEquals(1, wheel.getStats().cancelled());
+    }
+
+    @Test
+    public void cancelGoesUpstreamThroughTimeout() {
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock());
+        SecAdapter.SecWithAdapter<String> s = create();
+        Sec<String> timed = s.sec().timeout(60000, wheel);
+        timed.callMeWhenDone();
+
+        assertTrue(timed.cancel());
+        assertTrue(timed.isCancelled());
+        assertTrue(s.sec().isCancelled());
+        assertEquals(0, wheel.getStats().pending());
+    }
+}
@@ -0,0 +1,63 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import io.benwiegand.atvremote.receiver.protocol.limiting.ReplacementLimiter;
+
+/**
+ * what it costs to fail a Sec with a regular exception, a new signal, or a shared signal. the
+ * exceptions are made some frames down, since that's where they come from in practice and capturing
+ * the stack trace grows with depth. the numbers are printed, only the ordering is asserted.
+ */
+public class SignalCostBenchmarkTest {
+    private static final int WARMUP = 20000;
+    private static final int OPS = 100000;
+    private static final int STACK_DEPTH = 40;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile Throwable sink;
+
+    private static Throwable createAtDepth(int depth, Supplier<Throwable> factory) {
+        if (depth == 0) return factory.get();
+        return createAtDepth(depth - 1, factory);
+    }
+
+    private record Result(double bytes, double nanos) {}
+
+    private static Result measure(String name, Supplier<Throwable> factory) {
+        for (int i = 0; i < WARMUP; i++) sink = createAtDepth(STACK_DEPTH, factory);
+
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) sink = createAtDepth(STACK_DEPTH, factory);
+        long elapsed = System.nanoTime() - start;
+        long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        Result result = new Result((double) bytes / OPS, (double) elapsed / OPS);
+        System.out.printf(Locale.ROOT, "%-20s %7.1f bytes/op  %7.1f ns/op%n", name, result.bytes, result.nanos);
+        return result;
+    }
+
+    @Test
+    public void exceptionCreation() {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        Result full = measure("with stack trace", () -> new Exception("replaced by a newer event"));
+        Result stackless = measure("new signal", ReplacementLimiter.ReplacedException::new);
+        Result shared = measure("shared signal", () -> Signals.CONNECTION_CLOSED);
+
+        assertTrue("a signal shouldn't capture a stack trace", stackless.bytes < full.bytes);
+        assertTrue("a shared signal shouldn't allocate", shared.bytes < 1);
+        assertNotNull(sink);
+    }
+}
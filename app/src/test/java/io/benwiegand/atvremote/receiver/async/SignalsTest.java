@@ -0,0 +1,53 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import io.benwiegand.atvremote.receiver.protocol.RemoteProtocolException;
+
+public class SignalsTest {
+
+    private static List<Throwable> signals() {
+        return List.of(
+                Signals.CANCELLED,
+                Signals.CONNECTION_CLOSED,
+                Signals.timedOut("timed out"),
+                Signals.connectionClosed("gone"),
+                RemoteProtocolException.signal(0, "dropped"));
+    }
+
+    @Test
+    public void noStackTrace() {
+        for (Throwable signal : signals()) {
+            assertTrue(Signals.isSignal(signal));
+            assertEquals(0, signal.getStackTrace().length);
+
+            signal.setStackTrace(new StackTraceElement[] { new StackTraceElement("a", "b", "c", 1) });
+            assertEquals(0, signal.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void causeIsLocked() {
+        for (Throwable signal : signals()) {
+            assertThrows(IllegalStateException.class, () -> signal.initCause(new RuntimeException()));
+            assertNull(signal.getCause());
+        }
+    }
+
+    @Test
+    public void sharedWithoutSuppression() {
+        Throwable signal = RemoteProtocolException.signal(0, "dropped");
+        signal.addSuppressed(new RuntimeException());
+        assertEquals(0, signal.getSuppressed().length);
+    }
+
+    @Test
+    public void ordinaryExceptionsAreNotSignals() {
+        assertFalse(Signals.isSignal(new RuntimeException()));
+        assertFalse(Signals.isSignal(new RemoteProtocolException("not routine")));
+    }
+}
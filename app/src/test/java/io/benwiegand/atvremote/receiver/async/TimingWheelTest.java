@@ -0,0 +1,103 @@
+package io.benwiegand.atvremote.receiver.async;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+public class TimingWheelTest {
+
+    private static LongSupplier clock(long speedup) {
+        long start = System.nanoTime();
+        return () -> (System.nanoTime() - start) / 1000000 * speedup;
+    }
+
+    @Test
+    public void firesAfterDelay() throws InterruptedException {
+        LongSupplier clock = clock(1);
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock);
+        CountDownLatch latch = new CountDownLatch(1);
+        long[] firedAt = new long[1];
+
+        long scheduledAt = clock.getAsLong();
+        wheel.schedule(250, () -> {
+            firedAt[0] = clock.getAsLong();
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue("fired early", firedAt[0] - scheduledAt >= 250);
+        assertEquals(0, wheel.getStats().pending());
+        assertEquals(1, wheel.getStats().expired());
+    }
+
+    @Test
+    public void firesInDeadlineOrder() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock(1));
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+
+        for (int delay : new int[] {450, 50, 250}) {
+            wheel.schedule(delay, () -> {
+                order.add(delay);
+                latch.countDown();
+            });
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(50, 250, 450), order);
+    }
+
+    @Test
+    public void cancelledNeverFires() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock(1));
+        CountDownLatch fired = new CountDownLatch(1);
+        CountDownLatch later = new CountDownLatch(1);
+
+        TimingWheel.Timeout timeout = wheel.schedule(100, fired::countDown);
+        wheel.schedule(300, later::countDown);
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isDone());
+
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(1, fired.getCount());
+        assertEquals(1, wheel.getStats().cancelled());
+        assertEquals(1, wheel.getStats().expired());
+    }
+
+    @Test
+    public void cantCancelAfterFiring() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock(1));
+        CountDownLatch latch = new CountDownLatch(1);
+
+        TimingWheel.Timeout timeout = wheel.schedule(0, latch::countDown);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void delayLongerThanOneRotation() throws InterruptedException {
+        // a tick every real millisecond, so a full rotation of the wheel takes about half a second
+        LongSupplier clock = clock(100);
+        TimingWheel wheel = new TimingWheel("test", Runnable::run, clock);
+        CountDownLatch latch = new CountDownLatch(1);
+        long[] firedAt = new long[1];
+
+        long scheduledAt = clock.getAsLong();
+        wheel.schedule(80000, () -> {
+            firedAt[0] = clock.getAsLong();
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue("fired a rotation early", firedAt[0] - scheduledAt >= 80000);
+    }
+}
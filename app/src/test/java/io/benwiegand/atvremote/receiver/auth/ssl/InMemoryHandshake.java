@@ -0,0 +1,115 @@
+package io.benwiegand.atvremote.receiver.auth.ssl;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * runs TLS handshakes between a server with a key like the receiver's and a client that trusts it,
+ * entirely in memory. for benchmarks.
+ */
+public class InMemoryHandshake {
+    private static final char[] PASSWORD = "hunter2".toCharArray();
+
+    private final SSLContext serverContext;
+    private final SSLContext clientContext;
+
+    public InMemoryHandshake(KeystoreManager.KeyType keyType) throws Exception {
+        KeyPair keypair = KeystoreManager.generateKeypair(keyType);
+        Certificate cert = KeystoreManager.signKeypair(keypair, keyType);
+
+        KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        ks.load(null, PASSWORD);
+        ks.setKeyEntry("key", keypair.getPrivate(), PASSWORD, new Certificate[] {cert});
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, PASSWORD);
+        serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+
+        KeyStore ts = KeyStore.getInstance(KeyStore.getDefaultType());
+        ts.load(null, PASSWORD);
+        ts.setCertificateEntry("server", cert);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(ts);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, tmf.getTrustManagers(), null);
+    }
+
+    /**
+     * a full handshake. engines without a peer host never resume.
+     * @return the client's session
+     */
+    public SSLSession full() throws Exception {
+        return run(clientContext.createSSLEngine());
+    }
+
+    /**
+     * a handshake that resumes an earlier one with the same peer, if the server still has it
+     * @return the client's session
+     */
+    public SSLSession withPeer(String host, int port) throws Exception {
+        return run(clientContext.createSSLEngine(host, port));
+    }
+
+    private SSLSession run(SSLEngine client) throws Exception {
+        SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+        client.setUseClientMode(true);
+
+        int packetSize = Math.max(server.getSession().getPacketBufferSize(), client.getSession().getPacketBufferSize());
+        int appSize = Math.max(server.getSession().getApplicationBufferSize(), client.getSession().getApplicationBufferSize());
+        ByteBuffer toServer = ByteBuffer.allocate(packetSize);
+        ByteBuffer toClient = ByteBuffer.allocate(packetSize);
+        ByteBuffer app = ByteBuffer.allocate(appSize);
+
+        server.beginHandshake();
+        client.beginHandshake();
+        for (int i = 0; i < 100; i++) {
+            if (isDone(client) && isDone(server)) return client.getSession();
+            step(client, toServer, toClient, app);
+            step(server, toClient, toServer, app);
+        }
+        fail("handshake didn't finish");
+        return null;
+    }
+
+    private static boolean isDone(SSLEngine engine) {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING || status == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private static void step(SSLEngine engine, ByteBuffer out, ByteBuffer in, ByteBuffer app) throws Exception {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP -> {
+                    // a big flight can take more than one buffer, let the peer catch up
+                    if (engine.wrap(ByteBuffer.allocate(0), out).getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) return;
+                }
+                case NEED_TASK -> {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) task.run();
+                }
+                case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                    in.flip();
+                    SSLEngineResult result = engine.unwrap(in, app);
+                    in.compact();
+                    app.clear();
+                    if (result.bytesConsumed() == 0 && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK) return;
+                }
+                default -> {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.benwiegand.atvremote.receiver.auth.ssl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * compares the server key types: how long generating one takes, and how many full handshakes a
+ * second it can do. the numbers are printed, only the fact that it works is asserted.
+ */
+public class KeyTypeBenchmarkTest {
+    private static final long HANDSHAKE_DURATION = 1000;  // ms
+
+    private static int keygenIterations(KeystoreManager.KeyType keyType) {
+        return keyType == KeystoreManager.KeyType.RSA ? 3 : 50;
+    }
+
+    @Test
+    public void keygen() {
+        for (KeystoreManager.KeyType keyType : KeystoreManager.KeyType.values()) {
+            // warm up the provider
+            KeystoreManager.generateKeypair(keyType);
+
+            int iterations = keygenIterations(keyType);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) assertNotNull(KeystoreManager.generateKeypair(keyType));
+            double ms = (System.nanoTime() - start) / 1e6 / iterations;
+
+            System.out.printf(Locale.ROOT, "%s keygen: %.2f ms/key (%d keys)%n", keyType, ms, iterations);
+        }
+    }
+
+    @Test
+    public void handshakes() throws Exception {
+        for (KeystoreManager.KeyType keyType : KeystoreManager.KeyType.values()) {
+            InMemoryHandshake handshake = new InMemoryHandshake(keyType);
+
+            // warm up
+            for (int i = 0; i < 5; i++) handshake.full();
+
+            int handshakes = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                handshake.full();
+                handshakes++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < HANDSHAKE_DURATION * 1000000);
+
+            System.out.printf(Locale.ROOT, "%s handshakes: %.1f/s (%d in %d ms)%n",
+                    keyType, handshakes * 1e9 / elapsed, handshakes, elapsed / 1000000);
+        }
+    }
+}
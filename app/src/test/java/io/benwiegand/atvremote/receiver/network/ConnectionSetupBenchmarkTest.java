@@ -0,0 +1,120 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.benwiegand.atvremote.receiver.auth.ssl.InMemoryHandshake;
+import io.benwiegand.atvremote.receiver.auth.ssl.KeyUtil;
+import io.benwiegand.atvremote.receiver.auth.ssl.KeystoreManager;
+
+/**
+ * times the parts of connection setup that used to be done per connection against what's done now.
+ * the rest of setup (reading the version, init op, auth and meta) is bound by the remote's round
+ * trips and needs a device to measure. the numbers are printed, only the results are asserted.
+ */
+public class ConnectionSetupBenchmarkTest {
+    private static final int ITERATIONS = 50;
+    private static final byte[] VERSION_LINE = "v1 BIN2\n".getBytes(StandardCharsets.UTF_8);
+
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    /**
+     * @return the median time, in microseconds
+     */
+    private static double measure(Step step) throws Exception {
+        step.run();     // warm up
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            step.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[ITERATIONS / 2] / 1000.0;
+    }
+
+    private static double[] compare(String name, Step before, Step after) throws Exception {
+        double beforeUs = measure(before);
+        double afterUs = measure(after);
+        System.out.printf(Locale.ROOT, "%-14s before %9.1f us   after %9.1f us%n", name, beforeUs, afterUs);
+        return new double[] {beforeUs, afterUs};
+    }
+
+    @Test
+    public void setupSteps() throws Exception {
+        double[] total = new double[2];
+
+        // EventJuggler made a strong RNG for event ids, now it shares one
+        byte[] serial = new byte[3];
+        add(total, compare("rng",
+                () -> SecureRandom.getInstanceStrong().nextBytes(serial),
+                () -> KeyUtil.getSharedSecureRandom().nextBytes(serial)));
+
+        // three threads and a pool per connection, now prestarted workers
+        ExecutorService prestarted = new ThreadPoolExecutor(3, 3, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+        ((ThreadPoolExecutor) prestarted).prestartAllCoreThreads();
+        add(total, compare("threads",
+                () -> {
+                    CountDownLatch started = new CountDownLatch(3);
+                    ExecutorService pool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+                    for (int i = 0; i < 3; i++) new Thread(started::countDown).start();
+                    assertTrue(started.await(5, TimeUnit.SECONDS));
+                    pool.shutdown();
+                },
+                () -> {
+                    CountDownLatch started = new CountDownLatch(3);
+                    for (int i = 0; i < 3; i++) prestarted.execute(started::countDown);
+                    assertTrue(started.await(5, TimeUnit.SECONDS));
+                }));
+        prestarted.shutdown();
+
+        // stream codecs wrapped around the socket, now the framing decodes slices in place
+        add(total, compare("codecs",
+                () -> {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(VERSION_LINE), StandardCharsets.UTF_8));
+                    Writer writer = new OutputStreamWriter(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+                    assertEquals("v1 BIN2", reader.readLine());
+                    writer.write("OK BIN2\n");
+                    writer.flush();
+                },
+                () -> {
+                    ByteBuffer line = ByteBuffer.wrap(VERSION_LINE, 0, VERSION_LINE.length - 1);
+                    assertEquals("v1 BIN2", StandardCharsets.UTF_8.decode(line).toString());
+                    assertTrue(StandardCharsets.UTF_8.encode("OK BIN2\n").hasRemaining());
+                }));
+
+        // a remote coming back can resume its session instead of a full handshake
+        InMemoryHandshake handshake = new InMemoryHandshake(KeystoreManager.KeyType.EC);
+        handshake.withPeer("remote", 1);
+        add(total, compare("tls handshake",
+                handshake::full,
+                () -> handshake.withPeer("remote", 1)));
+
+        System.out.printf(Locale.ROOT, "%-14s before %9.1f us   after %9.1f us%n", "total", total[0], total[1]);
+    }
+
+    private static void add(double[] total, double[] step) {
+        total[0] += step[0];
+        total[1] += step[1];
+    }
+}
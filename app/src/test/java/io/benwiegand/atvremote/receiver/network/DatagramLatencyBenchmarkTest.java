@@ -0,0 +1,117 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * cursor latency over a lossy link, datagrams against the connection.
+ * <p>
+ *     a userspace proxy can drop datagrams but not TCP segments, so the link is simulated: a one way
+ *     delay with some jitter, and each packet lost at random. TCP resends a lost segment after a fast
+ *     retransmit (a round trip plus three more segments), then on a 200 ms timeout that doubles, and
+ *     delivers in order. datagrams go through {@link ReplayWindow} like the side channel does, and a
+ *     move counts as applied once any cursor total at or past it is.
+ * </p>
+ * <p>
+ *     the latencies are printed. only that datagrams keep the tail down under loss is asserted.
+ * </p>
+ */
+public class DatagramLatencyBenchmarkTest {
+    private static final int MOVES = 2500;          // 20 s of moves
+    private static final long INTERVAL = 8;         // ms, 125 Hz
+    private static final long DELAY = 10;           // ms, one way
+    private static final long JITTER = 3;           // ms
+    private static final long MIN_RTO = 200;        // ms
+    private static final double[] LOSS_RATES = {0, 0.01, 0.05};
+
+    private static long[] sendTimes() {
+        long[] sendAt = new long[MOVES];
+        for (int i = 0; i < MOVES; i++) sendAt[i] = i * INTERVAL;
+        return sendAt;
+    }
+
+    private static long arrival(Random random, long sentAt) {
+        return sentAt + DELAY + (long) (random.nextDouble() * JITTER);
+    }
+
+    /**
+     * @return the latency of each move until the receiver has it
+     */
+    private static long[] overTcp(Random random, double loss) {
+        long[] sendAt = sendTimes();
+        long[] latency = new long[MOVES];
+        long lastDelivered = 0;
+        for (int i = 0; i < MOVES; i++) {
+            long t = sendAt[i];
+            long retransmit = 2 * DELAY + 3 * INTERVAL;
+            long rto = MIN_RTO;
+            int attempts = 0;
+            while (random.nextDouble() < loss) {
+                t += attempts++ == 0 ? retransmit : rto;
+                if (attempts > 1) rto *= 2;
+            }
+
+            // in order, so a lost segment holds up everything after it
+            lastDelivered = Math.max(arrival(random, t), lastDelivered);
+            latency[i] = lastDelivered - sendAt[i];
+        }
+        return latency;
+    }
+
+    /**
+     * @return the latency of each move until a cursor total including it is applied, or -1 if none is
+     */
+    private static long[] overDatagrams(Random random, double loss) {
+        long[] sendAt = sendTimes();
+        long[][] arrivals = new long[MOVES][];
+        int received = 0;
+        for (int i = 0; i < MOVES; i++) {
+            if (random.nextDouble() < loss) continue;
+            arrivals[received++] = new long[] {arrival(random, sendAt[i]), i};
+        }
+        arrivals = Arrays.copyOf(arrivals, received);
+        Arrays.sort(arrivals, (a, b) -> Long.compare(a[0], b[0]));
+
+        long[] latency = new long[MOVES];
+        Arrays.fill(latency, -1);
+        ReplayWindow replayWindow = new ReplayWindow();
+        int applied = 0;    // moves before this one are applied
+        for (long[] datagram : arrivals) {
+            long sequence = datagram[1];
+            if (replayWindow.isSeen(sequence)) continue;
+            boolean newest = sequence > replayWindow.getHighest();
+            replayWindow.markSeen(sequence);
+            if (!newest) continue;  // an older total arriving late is ignored
+
+            for (; applied <= sequence; applied++) latency[applied] = datagram[0] - sendAt[applied];
+        }
+        return latency;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static long[] summarize(String name, double loss, long[] latency) {
+        long[] sorted = Arrays.stream(latency).filter(l -> l >= 0).sorted().toArray();
+        long[] summary = {percentile(sorted, 0.5), percentile(sorted, 0.99), sorted[sorted.length - 1]};
+        System.out.printf(Locale.ROOT, "%4.1f%% loss %-9s p50 %4d ms  p99 %4d ms  max %4d ms%n",
+                loss * 100, name, summary[0], summary[1], summary[2]);
+        return summary;
+    }
+
+    @Test
+    public void cursorLatencyUnderLoss() {
+        for (double loss : LOSS_RATES) {
+            long[] tcp = summarize("tcp", loss, overTcp(new Random(42), loss));
+            long[] datagrams = summarize("datagram", loss, overDatagrams(new Random(42), loss));
+
+            if (loss > 0) assertTrue("datagrams should cut the tail", datagrams[1] < tcp[1]);
+        }
+    }
+}
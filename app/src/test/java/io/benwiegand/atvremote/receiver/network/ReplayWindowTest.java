@@ -0,0 +1,57 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ReplayWindowTest {
+
+    private static boolean accept(ReplayWindow window, long sequence) {
+        if (window.isSeen(sequence)) return false;
+        window.markSeen(sequence);
+        return true;
+    }
+
+    @Test
+    public void acceptsEachSequenceOnce() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 0));
+        assertFalse(accept(window, 0));
+        assertTrue(accept(window, 1));
+        assertFalse(accept(window, 1));
+        assertFalse(accept(window, 0));
+    }
+
+    @Test
+    public void acceptsReorderedButUnseen() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 5));
+        assertTrue(accept(window, 3));
+        assertTrue(accept(window, 4));
+        assertFalse(accept(window, 3));
+        assertTrue(accept(window, 0));
+        assertEquals(5, window.getHighest());
+    }
+
+    @Test
+    public void rejectsOlderThanWindow() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 100));
+        assertTrue(accept(window, 100 - ReplayWindow.SIZE + 1));
+        assertFalse(accept(window, 100 - ReplayWindow.SIZE));
+    }
+
+    @Test
+    public void bigJumpForgetsWindow() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 1));
+        assertTrue(accept(window, 1000));
+        assertTrue(accept(window, 999));
+        assertFalse(accept(window, 1));
+    }
+
+    @Test
+    public void rejectsNegative() {
+        assertFalse(accept(new ReplayWindow(), -1));
+    }
+}
@@ -0,0 +1,45 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SessionHistoryTest {
+
+    @Test
+    public void sameIdIsResumed() {
+        SessionHistory history = new SessionHistory(4);
+        byte[] id = {1, 2, 3};
+        assertFalse(history.markSeen(id));
+        assertTrue(history.markSeen(new byte[] {1, 2, 3}));
+        assertFalse(history.markSeen(new byte[] {1, 2, 4}));
+    }
+
+    @Test
+    public void emptyIdIsNeverResumed() {
+        SessionHistory history = new SessionHistory(4);
+        assertFalse(history.markSeen(new byte[0]));
+        assertFalse(history.markSeen(new byte[0]));
+    }
+
+    @Test
+    public void keptIdsDontChangeWithTheCallersArray() {
+        SessionHistory history = new SessionHistory(4);
+        byte[] id = {1, 2, 3};
+        history.markSeen(id);
+        id[0] = 9;
+        assertTrue(history.markSeen(new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    public void forgetsLeastRecentlySeen() {
+        SessionHistory history = new SessionHistory(2);
+        history.markSeen(new byte[] {1});
+        history.markSeen(new byte[] {2});
+        assertTrue(history.markSeen(new byte[] {1}));  // 2 is now the oldest
+        history.markSeen(new byte[] {3});
+
+        assertTrue(history.markSeen(new byte[] {1}));
+        assertFalse(history.markSeen(new byte[] {2}));
+    }
+}
@@ -0,0 +1,168 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static io.benwiegand.atvremote.receiver.protocol.ProtocolConstants.OP_CURSOR_MOVE;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.net.ssl.SSLContext;
+
+import io.benwiegand.atvremote.receiver.protocol.BinaryProtocol;
+
+/**
+ * framing throughput for a flood of cursor moves, comparing the old stream reader path (decode
+ * everything, a String per line, through a queue) with TCPReader's line and binary framing. the
+ * numbers are printed, only the frame counts are asserted.
+ */
+public class TCPReaderBenchmarkTest {
+    private static final int FRAMES = 200000;
+    private static final int RECORD_SIZE = 16 * 1024;   // about what a TLS record delivers at once
+    private static final int ROUNDS = 5;
+
+    private static class InlineChannel extends TLSChannel {
+        InlineChannel() throws Exception {
+            super(null, null, SSLContext.getDefault().createSSLEngine());
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void setReadPaused(boolean paused) {}
+
+        @Override
+        public void close() {}
+    }
+
+    private static class CountingHandler implements TCPReader.FrameHandler {
+        int frames = 0;
+        long checksum = 0;
+
+        @Override
+        public void onFrame(String frame) {
+            frames++;
+            checksum += frame.length();
+        }
+
+        @Override
+        public void onBinaryFrame(ByteBuffer frame) {
+            frames++;
+            checksum += frame.remaining();
+        }
+
+        @Override
+        public void onOversizedFrame(String head) {
+            fail("unexpected oversized frame");
+        }
+
+        @Override
+        public void onOversizedBinaryFrame(ByteBuffer head) {
+            fail("unexpected oversized binary frame");
+        }
+
+        @Override
+        public void onClose(IOException reason) {}
+    }
+
+    private static byte[] lineFlood() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++)
+            out.writeBytes((Integer.toString(i, 36) + " " + OP_CURSOR_MOVE + " 3 -2\n").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static byte[] binaryFlood() {
+        ByteBuffer frame = ByteBuffer.allocate(32);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] extra = "3 -2".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < FRAMES; i++) {
+            frame.clear();
+            frame.put(BinaryProtocol.FRAME_OPERATION);
+            BinaryProtocol.writeVarint(frame, i);
+            BinaryProtocol.writeVarint(frame, BinaryProtocol.opcodeOf(OP_CURSOR_MOVE));
+            frame.put(extra);
+
+            int length = frame.position();
+            ByteBuffer head = ByteBuffer.allocate(BinaryProtocol.varintSize(length));
+            BinaryProtocol.writeVarint(head, length);
+            out.write(head.array(), 0, head.position());
+            out.write(frame.array(), 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * what the reader did before: decode the stream into chars, build a String per line, and hand
+     * it to another thread through a queue (the hop itself isn't counted here).
+     */
+    private static int streamReader(byte[] data) throws IOException {
+        Queue<String> lineBuffer = new ConcurrentLinkedQueue<>();
+        int frames = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                synchronized (lineBuffer) {
+                    lineBuffer.add(line);
+                    lineBuffer.notify();
+                }
+                synchronized (lineBuffer) {
+                    if (lineBuffer.poll() != null) frames++;
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static int tcpReader(byte[] data, boolean binary) throws Exception {
+        TCPReader reader = new TCPReader(new InlineChannel(), StandardCharsets.UTF_8, 256);
+        if (binary) reader.useBinaryFraming();
+        CountingHandler handler = new CountingHandler();
+        reader.startDispatching(handler);
+
+        for (int offset = 0; offset < data.length; offset += RECORD_SIZE)
+            reader.onReceive(ByteBuffer.wrap(data, offset, Math.min(RECORD_SIZE, data.length - offset)).slice());
+        return handler.frames;
+    }
+
+    private interface Framing {
+        int run(byte[] data) throws Exception;
+    }
+
+    private static void measure(String name, byte[] data, Framing framing) throws Exception {
+        // warm up
+        assertEquals(FRAMES, framing.run(data));
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            assertEquals(FRAMES, framing.run(data));
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.printf(Locale.ROOT, "%s: %.2f M frames/s, %.1f MB/s, %.0f ns/frame%n",
+                name, FRAMES * 1e3 / best, data.length * 1e3 / best, (double) best / FRAMES);
+    }
+
+    @Test
+    public void cursorMoveFlood() throws Exception {
+        byte[] lines = lineFlood();
+        byte[] binary = binaryFlood();
+
+        measure("stream reader (old)", lines, TCPReaderBenchmarkTest::streamReader);
+        measure("TCPReader lines", lines, data -> tcpReader(data, false));
+        measure("TCPReader binary", binary, data -> tcpReader(data, true));
+    }
+}
@@ -0,0 +1,151 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+
+public class TCPReaderTest {
+    private static final int MAX_FRAME_SIZE = 256;
+
+    // runs everything inline instead of on an event loop
+    private static class InlineChannel extends TLSChannel {
+        InlineChannel() throws Exception {
+            super(null, null, SSLContext.getDefault().createSSLEngine());
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void setReadPaused(boolean paused) {}
+
+        @Override
+        public void close() {}
+    }
+
+    private final List<String> frames = new ArrayList<>();
+    private final List<byte[]> binaryFrames = new ArrayList<>();
+    private TCPReader reader;
+
+    @Before
+    public void setUp() throws Exception {
+        reader = new TCPReader(new InlineChannel(), StandardCharsets.UTF_8, MAX_FRAME_SIZE);
+        reader.startDispatching(new TCPReader.FrameHandler() {
+            @Override
+            public void onFrame(String frame) {
+                frames.add(frame);
+            }
+
+            @Override
+            public void onBinaryFrame(ByteBuffer frame) {
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                binaryFrames.add(bytes);
+            }
+
+            @Override
+            public void onOversizedFrame(String head) {
+                fail("unexpected oversized frame");
+            }
+
+            @Override
+            public void onOversizedBinaryFrame(ByteBuffer head) {
+                fail("unexpected oversized binary frame");
+            }
+
+            @Override
+            public void onClose(IOException reason) {}
+        });
+    }
+
+    private void receive(byte[] bytes, int offset, int length) throws IOException {
+        reader.onReceive(ByteBuffer.wrap(bytes, offset, length).slice());
+    }
+
+    private void receive(byte[] bytes) throws IOException {
+        receive(bytes, 0, bytes.length);
+    }
+
+    private static byte[] binaryFrame(int... payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = payload.length;
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        for (int b : payload) out.write(b);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) out.writeBytes(part);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void linesSplitAcrossReceives() throws IOException {
+        byte[] data = "a1 PING\r\nb2 KEY_EVENT 4\nc3".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < data.length; i++) receive(data, i, 1);
+        assertEquals(List.of("a1 PING", "b2 KEY_EVENT 4"), frames);
+
+        receive("\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("c3", frames.get(2));
+    }
+
+    @Test
+    public void binaryFramesInOneReceive() throws IOException {
+        reader.useBinaryFraming();
+        receive(concat(binaryFrame(1, 2, 3), binaryFrame(4), binaryFrame(5, 6)));
+
+        assertEquals(3, binaryFrames.size());
+        assertArrayEquals(new byte[] {1, 2, 3}, binaryFrames.get(0));
+        assertArrayEquals(new byte[] {4}, binaryFrames.get(1));
+        assertArrayEquals(new byte[] {5, 6}, binaryFrames.get(2));
+    }
+
+    @Test
+    public void binaryFramesSplitAcrossReceives() throws IOException {
+        reader.useBinaryFraming();
+        int[] large = new int[200];    // two byte length
+        for (int i = 0; i < large.length; i++) large[i] = i;
+        byte[] data = concat(binaryFrame(7, 8), binaryFrame(large), binaryFrame(9));
+
+        for (int i = 0; i < data.length; i++) receive(data, i, 1);
+
+        assertEquals(3, binaryFrames.size());
+        assertArrayEquals(new byte[] {7, 8}, binaryFrames.get(0));
+        assertEquals(200, binaryFrames.get(1).length);
+        assertEquals((byte) 199, binaryFrames.get(1)[199]);
+        assertArrayEquals(new byte[] {9}, binaryFrames.get(2));
+    }
+
+    @Test
+    public void emptyBinaryFrameAtEndOfReceive() throws IOException {
+        reader.useBinaryFraming();
+        receive(concat(binaryFrame(1), binaryFrame()));
+
+        // it's complete once the length is, nothing more needs to arrive
+        assertEquals(2, binaryFrames.size());
+        assertEquals(0, binaryFrames.get(1).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void binaryLengthTooLong() throws IOException {
+        reader.useBinaryFraming();
+        receive(new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+    }
+}
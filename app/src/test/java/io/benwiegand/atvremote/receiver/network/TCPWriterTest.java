@@ -0,0 +1,147 @@
+package io.benwiegand.atvremote.receiver.network;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+
+import io.benwiegand.atvremote.receiver.protocol.BinaryProtocol;
+import io.benwiegand.atvremote.receiver.protocol.ProtocolConstants;
+
+public class TCPWriterTest {
+
+    // keeps whatever is written instead of encrypting it
+    private static class CapturingChannel extends TLSChannel {
+        private final List<ByteBuffer> writes = new ArrayList<>();
+
+        CapturingChannel() throws Exception {
+            super(null, null, SSLContext.getDefault().createSSLEngine());
+        }
+
+        @Override
+        public void write(ByteBuffer data) {
+            // the writer reuses its buffer, so copy like the real channel does
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data);
+            copy.flip();
+            writes.add(copy);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private CapturingChannel channel;
+    private TCPWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        channel = new CapturingChannel();
+        writer = new TCPWriter(channel, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer onlyWrite() {
+        assertEquals(1, channel.writes.size());
+        return channel.writes.get(0);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    /**
+     * @return the next frame's payload, without the length
+     */
+    private static ByteBuffer nextFrame(ByteBuffer data) {
+        int length = (int) BinaryProtocol.readVarint(data);
+        ByteBuffer frame = data.slice();
+        frame.limit(length);
+        data.position(data.position() + length);
+        return frame;
+    }
+
+    @Test
+    public void linesAreBatchedUntilFlush() throws IOException {
+        writer.queueLine("a");
+        writer.queueLine("b");
+        writer.queueLine("c");
+        assertTrue(channel.writes.isEmpty());
+
+        writer.flush();
+        assertEquals("a\nb\nc\n", text(onlyWrite()));
+        assertEquals(1, channel.getWireStats().getFlushes());
+        assertEquals(3, channel.getWireStats().getLines());
+    }
+
+    @Test
+    public void emptyFlushWritesNothing() throws IOException {
+        writer.flush();
+        writer.queueLine("a");
+        writer.flush();
+        writer.flush();
+        assertEquals(1, channel.writes.size());
+    }
+
+    @Test
+    public void largeLineGrowsTheBatch() throws IOException {
+        String line = "x".repeat(10000);
+        writer.sendLine(line);
+        assertEquals(line + "\n", text(onlyWrite()));
+    }
+
+    @Test
+    public void binaryFrames() throws IOException {
+        writer.useBinaryFraming();
+        writer.queueLine("hi");
+        writer.queueEvent("7", ProtocolConstants.OP_PING);
+        writer.queueEvent("abc", ProtocolConstants.OP_PING);   // no binary event id, still goes as a line
+        writer.flush();
+
+        ByteBuffer data = onlyWrite();
+
+        ByteBuffer line = nextFrame(data);
+        assertEquals(BinaryProtocol.FRAME_LINE, line.get());
+        assertEquals("hi", text(line));
+
+        ByteBuffer event = nextFrame(data);
+        assertEquals(BinaryProtocol.FRAME_OPERATION, event.get());
+        assertEquals(7, BinaryProtocol.readVarint(event));
+        assertEquals(BinaryProtocol.opcodeOf(ProtocolConstants.OP_PING), BinaryProtocol.readVarint(event));
+        assertFalse(event.hasRemaining());
+
+        ByteBuffer fallback = nextFrame(data);
+        assertEquals(BinaryProtocol.FRAME_LINE, fallback.get());
+        assertEquals("abc " + ProtocolConstants.OP_PING, text(fallback));
+
+        assertFalse(data.hasRemaining());
+    }
+
+    @Test
+    public void responsesUseTheEventsFraming() throws IOException {
+        writer.useBinaryFraming();
+        writer.queueResponse("12", false, ProtocolConstants.OP_CONFIRM, null);
+        writer.queueResponse("12", true, ProtocolConstants.OP_CONFIRM, "x");
+        writer.flush();
+
+        ByteBuffer data = onlyWrite();
+
+        // a line event gets a line response, even if its id is a number
+        ByteBuffer line = nextFrame(data);
+        assertEquals(BinaryProtocol.FRAME_LINE, line.get());
+        assertEquals("!12 " + ProtocolConstants.OP_CONFIRM, text(line));
+
+        ByteBuffer response = nextFrame(data);
+        assertEquals(BinaryProtocol.FRAME_RESPONSE, response.get());
+        assertEquals(12, BinaryProtocol.readVarint(response));
+        assertEquals(ProtocolConstants.OP_CONFIRM, BinaryProtocol.statusString(response.get()));
+        assertEquals("x", text(response));
+    }
+}
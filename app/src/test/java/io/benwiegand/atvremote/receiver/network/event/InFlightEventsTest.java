@@ -0,0 +1,77 @@
+package io.benwiegand.atvremote.receiver.network.event;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.benwiegand.atvremote.receiver.async.SecAdapter;
+import io.benwiegand.atvremote.receiver.async.TimingWheel;
+
+public class InFlightEventsTest {
+    private final TimingWheel wheel = new TimingWheel("test", Runnable::run, System::currentTimeMillis);
+    private final InFlightEvents inFlightEvents = new InFlightEvents(wheel);
+    private final List<Object> completions = new ArrayList<>();
+
+    private SecAdapter<EventResult> send(String eventId) {
+        SecAdapter.SecWithAdapter<EventResult> s = SecAdapter.createThreadless();
+        s.sec()
+                .doOnResult(completions::add)
+                .doOnError(completions::add)
+                .callMeWhenDone();
+        inFlightEvents.add(eventId, s.secAdapter(), 0, 60000);
+        return s.secAdapter();
+    }
+
+    @Test
+    public void writerFailureCompletesOnce() {
+        send("a");
+
+        // what the output thread does when the writer throws
+        IOException e = new IOException("write failed");
+        InFlightEvent inFlightEvent = inFlightEvents.remove("a");
+        assertNotNull(inFlightEvent);
+        inFlightEvent.adapter().throwError(e);
+
+        // then the connection closes
+        inFlightEvents.failAll(new IOException("closed"));
+
+        assertEquals(List.of(e), completions);
+        assertFalse(inFlightEvents.contains("a"));
+        assertEquals(0, wheel.getStats().pending());
+        assertEquals(1, wheel.getStats().cancelled());
+    }
+
+    @Test
+    public void responseAfterCloseIsIgnored() {
+        send("a");
+        send("b");
+
+        IOException closed = new IOException("closed");
+        inFlightEvents.failAll(closed);
+        assertNull(inFlightEvents.remove("a"));
+
+        assertEquals(List.of(closed, closed), completions);
+        assertEquals(0, wheel.getStats().pending());
+    }
+
+    @Test
+    public void responseCompletesOnce() {
+        send("a");
+        send("b");
+
+        InFlightEvent inFlightEvent = inFlightEvents.remove("a");
+        assertNotNull(inFlightEvent);
+        EventResult result = new EventResult("ok");
+        inFlightEvent.adapter().provideResult(result);
+        assertNull(inFlightEvents.remove("a"));
+
+        inFlightEvents.failAll(new IOException("closed"));
+        assertEquals(2, completions.size());
+        assertSame(result, completions.get(0));
+        assertEquals(0, wheel.getStats().pending());
+    }
+}
@@ -0,0 +1,153 @@
+package io.benwiegand.atvremote.receiver.network.event;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import io.benwiegand.atvremote.receiver.protocol.OperationDefinition;
+import io.benwiegand.atvremote.receiver.protocol.RemoteProtocolException;
+
+public class InputAdmissionTest {
+    private static final OperationDefinition KEY = new OperationDefinition("KEY", extra -> null)
+            .sheddable((extra, payload) -> "CLICK".equals(extra))
+            .onInputLane();
+    private static final OperationDefinition MOVE = new OperationDefinition("MOVE", extra -> null)
+            .mergeable((a, b) -> String.valueOf(Integer.parseInt(a) + Integer.parseInt(b)), null)
+            .onInputLane();
+
+    private final Queue<Runnable> lane = new ArrayDeque<>();
+    private final List<String> ran = new ArrayList<>();
+    private final List<String> merged = new ArrayList<>();
+    private final List<String> shed = new ArrayList<>();
+    private final List<Boolean> readPaused = new ArrayList<>();
+    private InputAdmission admission;
+
+    @Before
+    public void setUp() {
+        admission = createAdmission(500, 2);
+    }
+
+    private InputAdmission createAdmission(long maxAge, int maxPending) {
+        return new InputAdmission(lane::add, maxAge, maxPending, new InputAdmission.Handler() {
+            @Override
+            public void run(IncomingOperation operation) {
+                ran.add(describe(operation));
+            }
+
+            @Override
+            public void merged(IncomingOperation operation) {
+                merged.add(describe(operation));
+            }
+
+            @Override
+            public void shed(IncomingOperation operation, RemoteProtocolException reason) {
+                shed.add(describe(operation));
+            }
+
+            @Override
+            public void setReadPaused(boolean paused) {
+                readPaused.add(paused);
+            }
+        });
+    }
+
+    private static String describe(IncomingOperation operation) {
+        return operation.eventId() + ":" + operation.definition().operation() + " " + operation.extra();
+    }
+
+    private static IncomingOperation op(String eventId, OperationDefinition definition, String extra, long receivedAt) {
+        return new IncomingOperation(eventId, false, definition, extra, null, receivedAt);
+    }
+
+    private static IncomingOperation op(String eventId, OperationDefinition definition, String extra) {
+        return op(eventId, definition, extra, System.nanoTime());
+    }
+
+    private void drainLane() {
+        Runnable task;
+        while ((task = lane.poll()) != null) task.run();
+    }
+
+    @Test
+    public void mergesIntoWaitingCall() {
+        admission.admit(op("1", MOVE, "3"));
+        admission.admit(op("2", MOVE, "4"));
+        drainLane();
+
+        assertEquals(List.of("1:MOVE 3"), merged);
+        assertEquals(List.of("2:MOVE 7"), ran);
+        assertTrue(shed.isEmpty());
+    }
+
+    @Test
+    public void overflowDropsOldestSheddable() {
+        admission.admit(op("1", KEY, "DOWN"));
+        admission.admit(op("2", KEY, "CLICK"));
+        admission.admit(op("3", KEY, "UP"));
+        drainLane();
+
+        assertEquals(List.of("2:KEY CLICK"), shed);
+        assertEquals(List.of("1:KEY DOWN", "3:KEY UP"), ran);
+    }
+
+    @Test
+    public void overflowNeverDropsKeyUp() {
+        admission.admit(op("1", KEY, "DOWN"));
+        admission.admit(op("2", KEY, "UP"));
+        admission.admit(op("3", KEY, "DOWN"));
+        admission.admit(op("4", KEY, "UP"));
+        drainLane();
+
+        assertTrue(shed.isEmpty());
+        assertEquals(List.of("1:KEY DOWN", "2:KEY UP", "3:KEY DOWN", "4:KEY UP"), ran);
+    }
+
+    @Test
+    public void pausesReadingWhileBacklogged() {
+        admission = createAdmission(500, 4);
+        for (int i = 0; i < 4; i++) admission.admit(op(Integer.toString(i), KEY, i % 2 == 0 ? "DOWN" : "UP"));
+        assertEquals(List.of(true), readPaused);
+
+        drainLane();
+        assertEquals(List.of(true, false), readPaused);
+        assertEquals(4, ran.size());
+    }
+
+    @Test
+    public void rejectsPastHardLimit() {
+        // nothing here can be dropped, so once the backlog is twice the max, new input is turned away
+        for (int i = 0; i < 6; i++) admission.admit(op(Integer.toString(i), KEY, i % 2 == 0 ? "DOWN" : "UP"));
+        assertEquals(List.of("4:KEY DOWN", "5:KEY UP"), shed);
+
+        drainLane();
+        assertEquals(List.of("0:KEY DOWN", "1:KEY UP", "2:KEY DOWN", "3:KEY UP"), ran);
+        assertEquals(List.of(true, false), readPaused);
+    }
+
+    @Test
+    public void expiresOnlySheddable() {
+        long longAgo = System.nanoTime() - 10_000_000_000L;
+        admission.admit(op("1", KEY, "CLICK", longAgo));
+        admission.admit(op("2", KEY, "UP", longAgo));
+        drainLane();
+
+        assertEquals(List.of("1:KEY CLICK"), shed);
+        assertEquals(List.of("2:KEY UP"), ran);
+    }
+
+    @Test
+    public void runsInOrder() {
+        admission = createAdmission(500, 64);
+        for (int i = 0; i < 10; i++) admission.admit(op(Integer.toString(i), KEY, "CLICK"));
+        drainLane();
+
+        assertEquals(10, ran.size());
+        for (int i = 0; i < 10; i++) assertEquals(i + ":KEY CLICK", ran.get(i));
+    }
+}
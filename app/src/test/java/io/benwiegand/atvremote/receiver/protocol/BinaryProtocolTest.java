@@ -0,0 +1,70 @@
+package io.benwiegand.atvremote.receiver.protocol;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BinaryProtocolTest {
+
+    private static ByteBuffer bytes(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length);
+        for (int value : values) buffer.put((byte) value);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void varintRoundTrip() {
+        long[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+        for (long value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            BinaryProtocol.writeVarint(buffer, value);
+            assertEquals(BinaryProtocol.varintSize(value), buffer.position());
+
+            buffer.flip();
+            assertEquals(value, BinaryProtocol.readVarint(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void tenByteVarintCanBeNegative() {
+        ByteBuffer buffer = bytes(0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+        long value = BinaryProtocol.readVarint(buffer);
+        assertTrue(value < 0);
+        assertNull(BinaryProtocol.operationOf(value));
+    }
+
+    @Test(expected = MalformedEventException.class)
+    public void truncatedVarint() {
+        BinaryProtocol.readVarint(bytes(0x80, 0x80));
+    }
+
+    @Test(expected = MalformedEventException.class)
+    public void varintTooLong() {
+        BinaryProtocol.readVarint(bytes(0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01));
+    }
+
+    @Test
+    public void opcodes() {
+        int opcode = BinaryProtocol.opcodeOf(ProtocolConstants.OP_CURSOR_MOVE);
+        assertTrue(opcode >= 0);
+        assertEquals(ProtocolConstants.OP_CURSOR_MOVE, BinaryProtocol.operationOf(opcode));
+        assertEquals(-1, BinaryProtocol.opcodeOf("NOT_AN_OP"));
+        assertNull(BinaryProtocol.operationOf(BinaryProtocol.opcodeCount()));
+        assertNull(BinaryProtocol.operationOf(-1));
+    }
+
+    @Test
+    public void keyEventType() {
+        assertEquals(KeyEventType.CLICK, BinaryProtocol.readKeyEventType(bytes()));
+        assertEquals(KeyEventType.UP, BinaryProtocol.readKeyEventType(bytes(KeyEventType.UP.ordinal())));
+    }
+
+    @Test(expected = MalformedEventException.class)
+    public void unknownKeyEventType() {
+        BinaryProtocol.readKeyEventType(bytes(0x7F));
+    }
+}
@@ -0,0 +1,48 @@
+package io.benwiegand.atvremote.receiver.stuff;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class TimelineTest {
+    private long now = 1000;
+    private final Timeline timeline = new Timeline(() -> now);
+
+    @Test
+    public void stepsAndMarks() {
+        now += 5;
+        int step = timeline.begin("tls handshake");
+        now += 20;
+        timeline.mark("version received");
+        now += 10;
+        Timeline.Entry ended = timeline.end(step, false);
+
+        assertEquals(new Timeline.Entry("tls handshake", 5, 35, false, false), ended);
+        assertEquals(List.of(
+                ended,
+                new Timeline.Entry("version received", 25, 25, false, true)
+        ), timeline.getEntries());
+        assertEquals(35, timeline.elapsed());
+        assertEquals("tls handshake @5+30, version received @25 (ms)", timeline.toString());
+    }
+
+    @Test
+    public void runningAndFailedSteps() {
+        int failed = timeline.begin("keystore");
+        now += 3;
+        timeline.end(failed, true);
+        timeline.begin("ssl context");
+
+        assertEquals("keystore @0+3 (failed), ssl context @3 (running) (ms)", timeline.toString());
+    }
+
+    @Test
+    public void entriesAreACopy() {
+        timeline.mark("a");
+        List<Timeline.Entry> entries = timeline.getEntries();
+        timeline.mark("b");
+        assertEquals(1, entries.size());
+    }
+}